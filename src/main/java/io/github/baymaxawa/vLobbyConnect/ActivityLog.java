@@ -0,0 +1,270 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import org.slf4j.Logger;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ActivityLog - 登录和检测热路径上的日志层
+ * 每个玩家的详细信息只在 DEBUG 级别或该玩家被追踪时输出，并按类别采样和限速；
+ * 运维相关的警告同样按类别限速，被丢弃的条数计入定期汇总。
+ * 常规的登录情况改为每个周期输出一行汇总，例如 "412 joins (37 FORGE, 12 FABRIC, ...) in last 60s"。
+ * 被追踪玩家的详细信息额外写入该玩家的定长环形缓冲区，供 /vsc trace 查看。
+ */
+public class ActivityLog {
+
+    public enum Category {
+        JOIN,
+        DETECTION,
+        ROUTING,
+        QUEUE,
+        COMMAND
+    }
+
+    private final ProxyServer server;
+    private final Logger logger;
+    private final long reportIntervalSeconds;
+    private final Map<Category, Limiter> limiters = new EnumMap<>(Category.class);
+    private final int traceCapacity;
+    private final Map<UUID, TraceBuffer> traces = new ConcurrentHashMap<>();
+
+    // 当前汇总周期内的计数
+    private final LongAdder joins = new LongAdder();
+    private final LongAdder[] joinsByLoader = new LongAdder[ModLoader.count()];
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder unroutable = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    private ScheduledTask reportTask;
+
+    /**
+     * 单个类别的采样和限速：每 sampleRate 条保留一条，每秒最多 maxPerSecond 条
+     */
+    private static final class Limiter {
+        final int sampleRate;
+        final int maxPerSecond;
+        final AtomicLong seen = new AtomicLong();
+        final AtomicLong window = new AtomicLong();
+        final AtomicLong windowCount = new AtomicLong();
+
+        Limiter(int sampleRate, int maxPerSecond) {
+            this.sampleRate = Math.max(1, sampleRate);
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        boolean admit() {
+            if ((seen.getAndIncrement() % sampleRate) != 0) {
+                return false;
+            }
+            if (maxPerSecond <= 0) {
+                return true;
+            }
+            long second = System.currentTimeMillis() / 1000;
+            long current = window.get();
+            if (current != second && window.compareAndSet(current, second)) {
+                windowCount.set(0);
+            }
+            return windowCount.incrementAndGet() <= maxPerSecond;
+        }
+    }
+
+    /**
+     * 单个玩家最近的详细信息，写满后覆盖最旧的一条
+     */
+    private static final class TraceBuffer {
+        private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+        // 以下字段均由 this 保护
+        private final long[] times;
+        private final String[] lines;
+        private int next;
+        private int size;
+
+        TraceBuffer(int capacity) {
+            this.times = new long[capacity];
+            this.lines = new String[capacity];
+        }
+
+        synchronized void add(String line) {
+            times[next] = System.currentTimeMillis();
+            lines[next] = line;
+            next = (next + 1) % lines.length;
+            size = Math.min(size + 1, lines.length);
+        }
+
+        synchronized List<String> snapshot() {
+            List<String> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int index = (next - size + i + lines.length) % lines.length;
+                result.add(TIME_FORMAT.format(Instant.ofEpochMilli(times[index])) + " " + lines[index]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param traceCapacity 每个被追踪玩家保留的最近记录条数
+     * @param limits 类别 -> {采样率, 每秒上限}，没有列出的类别使用默认值
+     */
+    public ActivityLog(ProxyServer server, Logger logger, long reportIntervalSeconds,
+                       int defaultSampleRate, int defaultMaxPerSecond, Map<Category, int[]> limits, int traceCapacity) {
+        this.server = server;
+        this.logger = logger;
+        this.reportIntervalSeconds = reportIntervalSeconds;
+        this.traceCapacity = Math.max(1, traceCapacity);
+        for (Category category : Category.values()) {
+            int[] limit = limits.get(category);
+            limiters.put(category, limit != null
+                ? new Limiter(limit[0], limit[1])
+                : new Limiter(defaultSampleRate, defaultMaxPerSecond));
+        }
+        for (int i = 0; i < joinsByLoader.length; i++) {
+            joinsByLoader[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 启动定期汇总任务
+     */
+    public void start(Object plugin) {
+        reportTask = server.getScheduler().buildTask(plugin, this::report)
+            .repeat(reportIntervalSeconds, TimeUnit.SECONDS)
+            .schedule();
+    }
+
+    public void stop() {
+        if (reportTask != null) {
+            reportTask.cancel();
+            reportTask = null;
+        }
+    }
+
+    /**
+     * 是否需要输出该玩家的详细信息，调用方可以先判断再构造日志参数
+     */
+    public boolean isDetailEnabled(Player player) {
+        return traces.containsKey(player.getUniqueId()) || logger.isDebugEnabled();
+    }
+
+    /**
+     * 玩家的详细信息：被追踪的玩家总是以 INFO 输出并写入追踪缓冲区，其他玩家只在 DEBUG 级别按采样和限速输出
+     */
+    public void detail(Category category, Player player, String format, Object... args) {
+        TraceBuffer trace = traces.get(player.getUniqueId());
+        if (trace != null) {
+            String line = MessageFormatter.arrayFormat(format, args).getMessage();
+            trace.add("[" + category + "] " + line);
+            logger.info("[trace] {}", line);
+        } else if (logger.isDebugEnabled()) {
+            if (limiters.get(category).admit()) {
+                logger.debug(format, args);
+            } else {
+                suppressed.increment();
+            }
+        }
+    }
+
+    /**
+     * 按类别限速的警告
+     */
+    public void warn(Category category, String format, Object... args) {
+        if (limiters.get(category).admit()) {
+            logger.warn(format, args);
+        } else {
+            suppressed.increment();
+        }
+    }
+
+    public void recordJoin(ModLoader loader) {
+        joins.increment();
+        joinsByLoader[loader.ordinal()].increment();
+    }
+
+    public void recordDisconnect() {
+        disconnects.increment();
+    }
+
+    /**
+     * 没有任何可用服务器、也没有进入排队的登录
+     */
+    public void recordUnroutable() {
+        unroutable.increment();
+    }
+
+    /**
+     * 开始追踪玩家，已经在追踪时返回 false
+     */
+    public boolean trace(UUID playerId) {
+        return traces.putIfAbsent(playerId, new TraceBuffer(traceCapacity)) == null;
+    }
+
+    /**
+     * 停止追踪并丢弃缓冲区，没有在追踪时返回 false
+     */
+    public boolean untrace(UUID playerId) {
+        return traces.remove(playerId) != null;
+    }
+
+    public boolean isTraced(UUID playerId) {
+        return traces.containsKey(playerId);
+    }
+
+    /**
+     * 追踪缓冲区的快照，按时间从旧到新，没有在追踪时返回 null
+     */
+    public List<String> getTrace(UUID playerId) {
+        TraceBuffer trace = traces.get(playerId);
+        return trace != null ? trace.snapshot() : null;
+    }
+
+    private void report() {
+        long joinCount = joins.sumThenReset();
+        long disconnectCount = disconnects.sumThenReset();
+        long unroutableCount = unroutable.sumThenReset();
+        long suppressedCount = suppressed.sumThenReset();
+        StringBuilder loaders = new StringBuilder();
+        for (ModLoader loader : ModLoader.values()) {
+            long count = joinsByLoader[loader.ordinal()].sumThenReset();
+            if (count > 0) {
+                if (loaders.length() > 0) {
+                    loaders.append(", ");
+                }
+                loaders.append(count).append(' ').append(loader);
+            }
+        }
+        if (joinCount == 0 && disconnectCount == 0 && unroutableCount == 0 && suppressedCount == 0) {
+            return;
+        }
+
+        StringBuilder summary = new StringBuilder();
+        summary.append(joinCount).append(" joins");
+        if (loaders.length() > 0) {
+            summary.append(" (").append(loaders).append(')');
+        }
+        summary.append(", ").append(disconnectCount).append(" disconnects");
+        if (unroutableCount > 0) {
+            summary.append(", ").append(unroutableCount).append(" with no lobby available");
+        }
+        if (suppressedCount > 0) {
+            summary.append(", ").append(suppressedCount).append(" log lines suppressed");
+        }
+        summary.append(" in last ").append(reportIntervalSeconds).append('s');
+        logger.info(summary.toString());
+    }
+}
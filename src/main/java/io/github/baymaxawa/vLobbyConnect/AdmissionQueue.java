@@ -0,0 +1,307 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * AdmissionQueue - 所有大厅都满员或离线时的登录排队队列
+ * 玩家在选择初始服务器阶段被挂起，按优先级和入队顺序排队，
+ * 有空位时依次放行；队列长度和最长等待时间都有上限。
+ */
+public class AdmissionQueue {
+
+    private static final int WAIT_SAMPLE_SIZE = 1024;
+    private static final long POSITION_NOTIFY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final ProxyServer server;
+    private final Logger logger;
+    private final ActivityLog activityLog;
+    private final int maxLength;
+    private final long maxWaitMillis;
+    private final Map<String, Integer> priorityPermissions;
+    private final Function<Player, RegisteredServer> targetSelector;
+
+    // 以下字段均由 this 保护
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(
+        Comparator.comparingInt((Entry e) -> -e.priority).thenComparingLong(e -> e.sequence));
+    private final Map<UUID, Entry> entriesByPlayer = new HashMap<>();
+    private final long[] waitSamples = new long[WAIT_SAMPLE_SIZE];
+    private int waitSampleCount;
+    private int waitSampleIndex;
+    private long sequence;
+    private long admittedCount;
+    private long timedOutCount;
+    private long rejectedCount;
+    private long lastPositionNotify;
+
+    private ScheduledTask drainTask;
+
+    private static final class Entry {
+        final Player player;
+        final int priority;
+        final long sequence;
+        final long enqueuedAt;
+        final CompletableFuture<RegisteredServer> result = new CompletableFuture<>();
+
+        Entry(Player player, int priority, long sequence, long enqueuedAt) {
+            this.player = player;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * @param targetSelector 为玩家选择并预留目标服务器，没有可用服务器时返回 null
+     */
+    public AdmissionQueue(ProxyServer server, Logger logger, int maxLength, long maxWaitMillis,
+                          Map<String, Integer> priorityPermissions, Function<Player, RegisteredServer> targetSelector,
+                          ActivityLog activityLog) {
+        this.server = server;
+        this.logger = logger;
+        this.activityLog = activityLog;
+        this.maxLength = maxLength;
+        this.maxWaitMillis = maxWaitMillis;
+        this.priorityPermissions = new LinkedHashMap<>(priorityPermissions);
+        this.targetSelector = targetSelector;
+    }
+
+    /**
+     * 启动放行任务，每秒检查一次是否有空位
+     */
+    public void start(Object plugin) {
+        drainTask = server.getScheduler().buildTask(plugin, this::drain)
+            .repeat(1, TimeUnit.SECONDS)
+            .schedule();
+    }
+
+    /**
+     * 停止放行任务，仍在排队的玩家以 null 完成，登录流程不会一直挂起
+     */
+    public void stop() {
+        if (drainTask != null) {
+            drainTask.cancel();
+            drainTask = null;
+        }
+        List<Entry> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(queue);
+            queue.clear();
+            entriesByPlayer.clear();
+        }
+        for (Entry entry : pending) {
+            entry.result.complete(null);
+        }
+    }
+
+    /**
+     * 将玩家加入队列，返回的 future 在放行时以目标服务器完成，超时或离开时以 null 完成
+     * 队列已满时返回 null
+     */
+    public CompletableFuture<RegisteredServer> enqueue(Player player) {
+        Entry entry;
+        int position;
+        synchronized (this) {
+            Entry existing = entriesByPlayer.get(player.getUniqueId());
+            if (existing != null) {
+                return existing.result;
+            }
+            if (queue.size() >= maxLength) {
+                rejectedCount++;
+                return null;
+            }
+            entry = new Entry(player, priorityOf(player), sequence++, System.currentTimeMillis());
+            queue.add(entry);
+            entriesByPlayer.put(player.getUniqueId(), entry);
+            position = positionOf(entry);
+        }
+
+        player.sendMessage(Component.text("All lobbies are full. You are #" + position
+            + " in the queue, please wait...", NamedTextColor.YELLOW));
+        activityLog.detail(ActivityLog.Category.QUEUE, player, "Player {} queued for a lobby at position {} (priority {})",
+            player.getUsername(), position, entry.priority);
+        return entry.result;
+    }
+
+    /**
+     * 玩家断开连接时移出队列
+     */
+    public void remove(UUID playerId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entriesByPlayer.remove(playerId);
+            if (entry != null) {
+                queue.remove(entry);
+            }
+        }
+        if (entry != null) {
+            entry.result.complete(null);
+        }
+    }
+
+    /**
+     * 按优先级顺序放行有空位的玩家，并处理超时
+     * 选择和预留目标服务器在锁外进行，入队和离开不会等待路由
+     */
+    private void drain() {
+        List<Entry> candidates = new ArrayList<>();
+        List<Entry> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            if (queue.isEmpty()) {
+                return;
+            }
+            List<Entry> ordered = new ArrayList<>(queue);
+            ordered.sort(queue.comparator());
+            for (Entry entry : ordered) {
+                if (now - entry.enqueuedAt >= maxWaitMillis) {
+                    expired.add(entry);
+                    queue.remove(entry);
+                    entriesByPlayer.remove(entry.player.getUniqueId());
+                } else {
+                    candidates.add(entry);
+                }
+            }
+            timedOutCount += expired.size();
+        }
+
+        List<Entry> admitted = new ArrayList<>();
+        List<RegisteredServer> targets = new ArrayList<>();
+        for (Entry entry : candidates) {
+            RegisteredServer target = targetSelector.apply(entry.player);
+            if (target != null) {
+                admitted.add(entry);
+                targets.add(target);
+            }
+        }
+
+        boolean notify;
+        synchronized (this) {
+            for (int i = admitted.size() - 1; i >= 0; i--) {
+                Entry entry = admitted.get(i);
+                // 选择期间已经离开的玩家不再放行，预留由断开处理或预留超时释放
+                if (entriesByPlayer.get(entry.player.getUniqueId()) != entry) {
+                    admitted.remove(i);
+                    targets.remove(i);
+                    continue;
+                }
+                queue.remove(entry);
+                entriesByPlayer.remove(entry.player.getUniqueId());
+                recordWait(now - entry.enqueuedAt);
+            }
+            admittedCount += admitted.size();
+            notify = !queue.isEmpty() && now - lastPositionNotify >= POSITION_NOTIFY_MILLIS;
+            if (notify) {
+                lastPositionNotify = now;
+            }
+        }
+
+        for (int i = 0; i < admitted.size(); i++) {
+            admitted.get(i).result.complete(targets.get(i));
+        }
+        for (Entry entry : expired) {
+            entry.player.disconnect(Component.text("All lobbies are still full, please try again later.", NamedTextColor.RED));
+            entry.result.complete(null);
+        }
+        if (!expired.isEmpty()) {
+            logger.warn("{} queued player(s) gave up waiting for a lobby after {} ms", expired.size(), maxWaitMillis);
+        }
+        if (notify) {
+            notifyPositions();
+        }
+    }
+
+    private void notifyPositions() {
+        List<Entry> ordered;
+        synchronized (this) {
+            ordered = new ArrayList<>(queue);
+        }
+        ordered.sort(queue.comparator());
+        for (int i = 0; i < ordered.size(); i++) {
+            ordered.get(i).player.sendMessage(Component.text("You are #" + (i + 1) + " of "
+                + ordered.size() + " in the lobby queue.", NamedTextColor.YELLOW));
+        }
+    }
+
+    private int priorityOf(Player player) {
+        int priority = 0;
+        for (Map.Entry<String, Integer> lane : priorityPermissions.entrySet()) {
+            if (lane.getValue() > priority && player.hasPermission(lane.getKey())) {
+                priority = lane.getValue();
+            }
+        }
+        return priority;
+    }
+
+    // 调用方必须持有 this 锁
+    private int positionOf(Entry target) {
+        int position = 1;
+        Comparator<? super Entry> comparator = queue.comparator();
+        for (Entry entry : queue) {
+            if (entry != target && comparator.compare(entry, target) < 0) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    // 调用方必须持有 this 锁
+    private void recordWait(long waitMillis) {
+        waitSamples[waitSampleIndex] = waitMillis;
+        waitSampleIndex = (waitSampleIndex + 1) % WAIT_SAMPLE_SIZE;
+        if (waitSampleCount < WAIT_SAMPLE_SIZE) {
+            waitSampleCount++;
+        }
+    }
+
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    public synchronized long getAdmittedCount() {
+        return admittedCount;
+    }
+
+    public synchronized long getTimedOutCount() {
+        return timedOutCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * 最近放行玩家的等待时间百分位（毫秒），没有样本时返回 -1
+     */
+    public long getWaitPercentile(double percentile) {
+        long[] samples;
+        synchronized (this) {
+            if (waitSampleCount == 0) {
+                return -1;
+            }
+            samples = Arrays.copyOf(waitSamples, waitSampleCount);
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(index, samples.length - 1))];
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ChannelClassifier - 根据插件消息通道名判断模组加载器
+ * 前缀在启动时编译成一棵扁平化的前缀树，分类时对通道名只扫描一遍，
+ * 取最长匹配的前缀，不创建任何对象。
+ */
+public final class ChannelClassifier {
+
+    /**
+     * 内置的通道前缀，配置文件中的 mod-detection.channels 可以追加或覆盖
+     */
+    public static final Map<String, ModLoader> DEFAULT_PREFIXES;
+
+    static {
+        Map<String, ModLoader> defaults = new LinkedHashMap<>();
+        defaults.put("fml:", ModLoader.FORGE);
+        defaults.put("forge:", ModLoader.FORGE);
+        defaults.put("fabric:", ModLoader.FABRIC);
+        defaults.put("fabric-", ModLoader.FABRIC);
+        defaults.put("quilt:", ModLoader.QUILT);
+        defaults.put("neoforge:", ModLoader.NEOFORGE);
+        DEFAULT_PREFIXES = Collections.unmodifiableMap(defaults);
+    }
+
+    private static final ModLoader[] LOADERS = ModLoader.values();
+
+    // 节点 i 的出边为 edgeChars/edgeTargets[edgeStart[i], edgeStart[i + 1])，按字符排序
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    // 以节点 i 结尾的前缀对应的加载器序号，-1 表示不是前缀终点
+    private final byte[] terminal;
+
+    private ChannelClassifier(int[] edgeStart, char[] edgeChars, int[] edgeTargets, byte[] terminal) {
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.terminal = terminal;
+    }
+
+    /**
+     * 返回最长匹配前缀对应的加载器，没有匹配时返回 null
+     */
+    public ModLoader classify(String channel) {
+        int node = 0;
+        int match = terminal[0];
+        for (int i = 0, length = channel.length(); i < length; i++) {
+            node = child(node, channel.charAt(i));
+            if (node < 0) {
+                break;
+            }
+            if (terminal[node] >= 0) {
+                match = terminal[node];
+            }
+        }
+        return match >= 0 ? LOADERS[match] : null;
+    }
+
+    private int child(int node, char c) {
+        int low = edgeStart[node];
+        int high = edgeStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char edge = edgeChars[mid];
+            if (edge < c) {
+                low = mid + 1;
+            } else if (edge > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 使用内置前缀编译
+     */
+    public static ChannelClassifier compile() {
+        return compile(DEFAULT_PREFIXES);
+    }
+
+    /**
+     * 编译前缀表，前缀区分大小写，与 Minecraft 的命名空间规则一致（全小写）
+     */
+    public static ChannelClassifier compile(Map<String, ModLoader> prefixes) {
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Byte> ends = new ArrayList<>();
+        children.add(new TreeMap<>());
+        ends.add((byte) -1);
+
+        for (Map.Entry<String, ModLoader> entry : prefixes.entrySet()) {
+            int node = 0;
+            String prefix = entry.getKey();
+            for (int i = 0; i < prefix.length(); i++) {
+                Integer next = children.get(node).get(prefix.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    ends.add((byte) -1);
+                    children.get(node).put(prefix.charAt(i), next);
+                }
+                node = next;
+            }
+            ends.set(node, (byte) entry.getValue().ordinal());
+        }
+
+        int nodeCount = children.size();
+        int[] edgeStart = new int[nodeCount + 1];
+        char[] edgeChars = new char[nodeCount - 1];
+        int[] edgeTargets = new int[nodeCount - 1];
+        byte[] terminal = new byte[nodeCount];
+        int edge = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            edgeStart[node] = edge;
+            terminal[node] = ends.get(node);
+            for (Map.Entry<Character, Integer> child : children.get(node).entrySet()) {
+                edgeChars[edge] = child.getKey();
+                edgeTargets[edge] = child.getValue();
+                edge++;
+            }
+        }
+        edgeStart[nodeCount] = edge;
+        return new ChannelClassifier(edgeStart, edgeChars, edgeTargets, terminal);
+    }
+
+    /**
+     * 合并内置前缀和配置中的 mod-detection.channels（前缀 -> 加载器名称）
+     */
+    public static ChannelClassifier fromConfig(Map<String, Object> channels, Logger logger) {
+        Map<String, ModLoader> prefixes = new LinkedHashMap<>(DEFAULT_PREFIXES);
+        if (channels != null) {
+            for (Map.Entry<String, Object> entry : channels.entrySet()) {
+                ModLoader loader = entry.getValue() != null ? ModLoader.fromName(entry.getValue().toString().toUpperCase()) : null;
+                if (loader == null) {
+                    logger.warn("Unknown mod loader '{}' for channel prefix: {}", entry.getValue(), entry.getKey());
+                    continue;
+                }
+                prefixes.put(entry.getKey(), loader);
+            }
+        }
+        return compile(prefixes);
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+/**
+ * CircuitBreaker - 单个后端服务器的熔断器
+ * CLOSED：正常路由；连续失败达到阈值后进入 OPEN。
+ * OPEN：路由直接跳过，也不再 ping；冷却时间结束后进入 HALF_OPEN。
+ * HALF_OPEN：只放行一次探测，成功则恢复 CLOSED，失败则重新 OPEN。
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private volatile State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long openCount;
+    private long halfOpenCount;
+    private long closeCount;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * 是否允许发起一次请求（ping）
+     * OPEN 状态在冷却结束后转为 HALF_OPEN，并且只允许一个探测请求通过
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                halfOpenCount++;
+                probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * 记录一次成功，返回状态是否发生变化
+     */
+    public synchronized boolean recordSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            closeCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录一次失败，返回状态是否发生变化
+     */
+    public synchronized boolean recordFailure() {
+        probeInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            openCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 只有 CLOSED 状态的服务器参与路由
+     */
+    public boolean allowsTraffic() {
+        return state == State.CLOSED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    public synchronized long getHalfOpenCount() {
+        return halfOpenCount;
+    }
+
+    public synchronized long getCloseCount() {
+        return closeCount;
+    }
+}
@@ -0,0 +1,229 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import org.slf4j.Logger;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConfigReloader - 运行中重新加载路由配置
+ * 由 /vsc reload 或可选的文件监听触发：重新解析 config.yml，按 Velocity 当前注册的服务器编译新路由表，
+ * 校验通过后整体替换。已经在进行中的登录继续使用它们读取到的旧快照。
+ * 只有 servers 和 fallback 段会重新加载，其他设置仍需要重启代理。
+ * 配置引用的服务器在 Velocity 中注册或注销时（例如自动扩缩容的大厅），以同一份配置重新编译路由表。
+ */
+public class ConfigReloader {
+
+    // 编辑器保存文件时通常会连续触发多个事件，合并为一次重新加载
+    private static final long WATCH_DEBOUNCE_MILLIS = 500;
+    // 扩容时通常会连续注册多台服务器，合并为一次重新编译
+    private static final long REGISTRATION_DEBOUNCE_MILLIS = 250;
+
+    private final ProxyServer server;
+    private final Logger logger;
+    private final Path configFile;
+    private final RoutingService routingService;
+
+    private WatchService watchService;
+    private Thread watchThread;
+    // 由 this 保护
+    private ScheduledTask pendingReload;
+    private ScheduledTask pendingRebuild;
+
+    public ConfigReloader(ProxyServer server, Logger logger, Path configFile, RoutingService routingService) {
+        this.server = server;
+        this.logger = logger;
+        this.configFile = configFile;
+        this.routingService = routingService;
+    }
+
+    /**
+     * 读取配置文件，不存在时先写出默认配置
+     */
+    public static Map<String, Object> load(Path configFile) throws IOException {
+        if (!Files.exists(configFile)) {
+            Files.createDirectories(configFile.toAbsolutePath().getParent());
+            try (InputStream defaults = ConfigReloader.class.getResourceAsStream("/config.yml")) {
+                Files.copy(defaults, configFile);
+            }
+        }
+        try (InputStream in = Files.newInputStream(configFile)) {
+            return new Yaml().load(in);
+        }
+    }
+
+    /**
+     * 重新加载路由配置，返回一行结果说明；配置无效时保留当前路由表
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized String reload() {
+        Map<String, Object> config;
+        try {
+            config = load(configFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read {}, keeping the current routing table", configFile, e);
+            return "Failed to read config.yml, keeping the current routing table: " + e.getMessage();
+        }
+        if (config == null || !(config.get("servers") instanceof Map)) {
+            logger.warn("No servers section in {}, keeping the current routing table", configFile);
+            return "No servers section in config.yml, keeping the current routing table.";
+        }
+        Map<String, Object> fallbackConfig = config.get("fallback") instanceof Map
+            ? (Map<String, Object>) config.get("fallback") : null;
+
+        RoutingTable current = routingService.getTable();
+        RoutingTable updated = RoutingTable.compile((Map<String, Object>) config.get("servers"), fallbackConfig, server, logger);
+        if (updated.isEmpty()) {
+            logger.warn("Reloaded configuration has no valid server groups, keeping the current routing table");
+            return "The new configuration has no valid server groups, keeping the current routing table.";
+        }
+        routingService.updateTable(updated);
+
+        String summary = describeChanges(current, updated);
+        logger.info("Routing table reloaded: {}", summary);
+        return "Routing table reloaded: " + summary;
+    }
+
+    /**
+     * 服务器注册或注销后调用；配置引用了该服务器名时，稍后按当前注册的服务器重新编译路由表
+     */
+    public void serverChanged(Object plugin, String serverName) {
+        if (!routingService.getTable().references(serverName)) {
+            return;
+        }
+        synchronized (this) {
+            if (pendingRebuild == null) {
+                pendingRebuild = server.getScheduler().buildTask(plugin, this::rebuild)
+                    .delay(REGISTRATION_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)
+                    .schedule();
+            }
+        }
+    }
+
+    private synchronized void rebuild() {
+        pendingRebuild = null;
+        RoutingTable current = routingService.getTable();
+        RoutingTable updated = current.rebuild(server);
+        routingService.updateTable(updated);
+        logger.info("Server registrations changed, routing table updated: {}", describeChanges(current, updated));
+    }
+
+    /**
+     * 开始监听配置文件，保存后自动重新加载
+     */
+    public void startWatching(Object plugin) {
+        Path directory = configFile.toAbsolutePath().getParent();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.warn("Failed to watch {} for changes, use /vsc reload instead", configFile, e);
+            return;
+        }
+        watchThread = new Thread(() -> watch(plugin), "vServerConnect-config-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        logger.info("Watching {} for changes.", configFile);
+    }
+
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close config watcher", e);
+            }
+            watchService = null;
+        }
+        synchronized (this) {
+            if (pendingReload != null) {
+                pendingReload.cancel();
+                pendingReload = null;
+            }
+            if (pendingRebuild != null) {
+                pendingRebuild.cancel();
+                pendingRebuild = null;
+            }
+        }
+    }
+
+    private void watch(Object plugin) {
+        Path fileName = configFile.getFileName();
+        WatchService service = watchService;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    scheduleReload(plugin);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // 代理关闭
+        }
+    }
+
+    private synchronized void scheduleReload(Object plugin) {
+        if (pendingReload != null) {
+            pendingReload.cancel();
+        }
+        pendingReload = server.getScheduler().buildTask(plugin, this::reload)
+            .delay(WATCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)
+            .schedule();
+    }
+
+    /**
+     * 新旧路由表分组的差异，例如 "3 group(s), added [1.21-FABRIC], removed [], changed [VIA-VANILLA]"
+     */
+    static String describeChanges(RoutingTable current, RoutingTable updated) {
+        Map<String, List<RegisteredServer>> before = current.getGroups();
+        Map<String, List<RegisteredServer>> after = updated.getGroups();
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (String key : after.keySet()) {
+            if (!before.containsKey(key)) {
+                added.add(key);
+            } else if (!serverNames(before.get(key)).equals(serverNames(after.get(key)))) {
+                changed.add(key);
+            }
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            return after.size() + " group(s), no group changes";
+        }
+        return after.size() + " group(s), added " + added + ", removed " + removed + ", changed " + changed;
+    }
+
+    private static List<String> serverNames(List<RegisteredServer> servers) {
+        List<String> names = new ArrayList<>(servers.size());
+        servers.forEach(s -> names.add(s.getServerInfo().getName()));
+        return names;
+    }
+}
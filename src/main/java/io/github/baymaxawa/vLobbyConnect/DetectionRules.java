@@ -0,0 +1,272 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * DetectionRules - 按顺序求值的模组加载器检测规则
+ * 每条规则由若干条件组成（全部满足才匹配），第一条匹配的规则决定加载器，都不匹配时为 VANILLA。
+ * 规则在启动时从配置 mod-detection.rules 编译，没有配置时使用内置的默认规则。
+ * 规则的顺序就是优先级：等待期间只有排在前面的规则都不可能再匹配时，结果才是最终的。
+ *
+ * 可用条件：
+ *   handshake: LOADER            收到过该加载器的通道（通道前缀见 mod-detection.channels）
+ *   brand: "正则"                 品牌匹配（忽略大小写，部分匹配）
+ *   min-brand-length: N          品牌不少于 N 个字符
+ *   min-messages: N              插件消息数不少于 N
+ *   custom-payload: true         收到过品牌以外的插件消息
+ *   max-first-message-age-ms: N  第一条插件消息在 N 毫秒内，且收到过品牌以外的插件消息
+ *   at-timeout: true             只在等待超时后的最终判断中使用
+ */
+public final class DetectionRules {
+
+    /**
+     * 单个玩家的检测特征，在一次求值中保持不变
+     */
+    public static final class Features {
+        final int handshakes;
+        final String brand;
+        final int messageCount;
+        final boolean customPayload;
+        final long firstMessageAgeMillis;
+
+        /**
+         * @param handshakes 按 1 << ModLoader.ordinal() 置位的握手标记
+         * @param firstMessageAgeMillis 距第一条插件消息的时间，没有消息时为 -1
+         */
+        public Features(int handshakes, String brand, int messageCount, boolean customPayload, long firstMessageAgeMillis) {
+            this.handshakes = handshakes;
+            this.brand = brand != null ? brand : "";
+            this.messageCount = messageCount;
+            this.customPayload = customPayload;
+            this.firstMessageAgeMillis = firstMessageAgeMillis;
+        }
+
+        public static Features ofBrand(String brand) {
+            return new Features(0, brand, 0, false, -1);
+        }
+    }
+
+    private static final class Rule {
+        final ModLoader loader;
+        final int handshakeMask;
+        final Pattern brand;
+        final int minBrandLength;
+        final int minMessages;
+        final boolean requireCustomPayload;
+        final long maxFirstMessageAgeMillis;
+        final boolean atTimeout;
+
+        Rule(ModLoader loader, int handshakeMask, Pattern brand, int minBrandLength, int minMessages,
+             boolean requireCustomPayload, long maxFirstMessageAgeMillis, boolean atTimeout) {
+            this.loader = loader;
+            this.handshakeMask = handshakeMask;
+            this.brand = brand;
+            this.minBrandLength = minBrandLength;
+            this.minMessages = minMessages;
+            this.requireCustomPayload = requireCustomPayload;
+            this.maxFirstMessageAgeMillis = maxFirstMessageAgeMillis;
+            this.atTimeout = atTimeout;
+        }
+
+        boolean matches(Features features, boolean timedOut) {
+            if (atTimeout && !timedOut) {
+                return false;
+            }
+            if (handshakeMask != 0 && (features.handshakes & handshakeMask) == 0) {
+                return false;
+            }
+            if (features.brand.length() < minBrandLength) {
+                return false;
+            }
+            if (features.messageCount < minMessages) {
+                return false;
+            }
+            if (requireCustomPayload && !features.customPayload) {
+                return false;
+            }
+            // 原版客户端也会发送品牌消息，只有品牌时消息的时间不能说明任何问题
+            if (maxFirstMessageAgeMillis >= 0 && (!features.customPayload
+                    || features.firstMessageAgeMillis < 0 || features.firstMessageAgeMillis >= maxFirstMessageAgeMillis)) {
+                return false;
+            }
+            return brand == null || brand.matcher(features.brand).find();
+        }
+
+        /**
+         * 还没有匹配的规则是否可能随后续的插件消息匹配
+         * @param brandLoader 只按品牌求值的加载器，还没有收到品牌时为 null
+         */
+        boolean couldStillMatch(Features features, ModLoader brandLoader) {
+            // 超时规则只在最终判断中使用，不阻止提前结束
+            if (atTimeout) {
+                return false;
+            }
+            if (!features.brand.isEmpty()) {
+                if (brand != null && !brand.matcher(features.brand).find()) {
+                    return false;
+                }
+                if (features.brand.length() < minBrandLength) {
+                    return false;
+                }
+                // 品牌已经表明了加载器，指向其他加载器的规则不再等待
+                if (brandLoader != ModLoader.VANILLA && loader != brandLoader) {
+                    return false;
+                }
+            }
+            // 消息时间只会越来越久
+            return maxFirstMessageAgeMillis < 0 || features.firstMessageAgeMillis < maxFirstMessageAgeMillis;
+        }
+    }
+
+    private final Rule[] rules;
+
+    private DetectionRules(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * 按顺序求值，返回第一条匹配规则的加载器，都不匹配时返回 VANILLA
+     * @param timedOut 是否是等待超时后的最终判断
+     */
+    public ModLoader evaluate(Features features, boolean timedOut) {
+        for (Rule rule : rules) {
+            if (rule.matches(features, timedOut)) {
+                return rule.loader;
+            }
+        }
+        return ModLoader.VANILLA;
+    }
+
+    /**
+     * 等待期间的求值：结果不会再被排在前面、指向其他加载器的规则推翻时返回该加载器，否则返回 null
+     * 例如 Quilt 客户端先注册 fabric: 通道，在收到 quilt: 通道或品牌之前不会被判定为 Fabric
+     */
+    public ModLoader evaluateSettled(Features features) {
+        int matched = -1;
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i].matches(features, false)) {
+                matched = i;
+                break;
+            }
+        }
+        if (matched < 0) {
+            return null;
+        }
+        ModLoader loader = rules[matched].loader;
+        ModLoader brandLoader = features.brand.isEmpty() ? null : evaluate(Features.ofBrand(features.brand), false);
+        for (int i = 0; i < matched; i++) {
+            if (rules[i].loader != loader && rules[i].couldStillMatch(features, brandLoader)) {
+                return null;
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * 内置的默认规则
+     */
+    public static DetectionRules defaults() {
+        List<Rule> rules = new ArrayList<>();
+        // 优先级：NeoForge > Forge > Quilt > Fabric，每个加载器先看握手通道再看品牌，
+        // 较高优先级的品牌可以纠正较低优先级的通道（发送 fml: 通道的旧版 NeoForge、先注册 fabric: 通道的 Quilt）
+        rules.add(handshake(ModLoader.NEOFORGE));
+        rules.add(brand(ModLoader.NEOFORGE, "neoforge"));
+        rules.add(handshake(ModLoader.FORGE));
+        rules.add(brand(ModLoader.FORGE, "forge"));
+        rules.add(handshake(ModLoader.QUILT));
+        rules.add(brand(ModLoader.QUILT, "quilt"));
+        rules.add(handshake(ModLoader.FABRIC));
+        rules.add(brand(ModLoader.FABRIC, "fabric"));
+        // 大量插件消息通常是Forge
+        rules.add(new Rule(ModLoader.FORGE, 0, null, 0, 4, true, -1, false));
+        rules.add(new Rule(ModLoader.FORGE, 0, null, 0, 6, false, -1, true));
+        // 旧版"品牌超过 20 个字符"的分支只在品牌包含加载器名称时才给出结果，已由上面的品牌规则覆盖，
+        // 因此没有对应的默认规则；需要按品牌长度判断时可以在配置中使用 min-brand-length
+        return new DetectionRules(rules.toArray(new Rule[0]));
+    }
+
+    /**
+     * 编译配置中的规则列表，列表为空或没有有效规则时使用默认规则
+     */
+    public static DetectionRules compile(List<Object> config, Logger logger) {
+        if (config == null || config.isEmpty()) {
+            return defaults();
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < config.size(); i++) {
+            if (!(config.get(i) instanceof Map)) {
+                logger.warn("Ignoring detection rule #{}: expected a map of conditions", i + 1);
+                continue;
+            }
+            Rule rule = compileRule((Map<?, ?>) config.get(i), i + 1, logger);
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+        if (rules.isEmpty()) {
+            logger.warn("No valid detection rules configured, using the built-in rules");
+            return defaults();
+        }
+        return new DetectionRules(rules.toArray(new Rule[0]));
+    }
+
+    private static Rule compileRule(Map<?, ?> config, int index, Logger logger) {
+        ModLoader loader = loaderOf(config.get("loader"));
+        if (loader == null) {
+            logger.warn("Ignoring detection rule #{}: unknown or missing loader '{}'", index, config.get("loader"));
+            return null;
+        }
+
+        int handshakeMask = 0;
+        if (config.get("handshake") != null) {
+            ModLoader handshake = loaderOf(config.get("handshake"));
+            if (handshake == null) {
+                logger.warn("Ignoring detection rule #{}: unknown handshake loader '{}'", index, config.get("handshake"));
+                return null;
+            }
+            handshakeMask = 1 << handshake.ordinal();
+        }
+
+        Pattern brand = null;
+        if (config.get("brand") != null) {
+            try {
+                brand = Pattern.compile(config.get("brand").toString(), Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                logger.warn("Ignoring detection rule #{}: invalid brand pattern '{}'", index, config.get("brand"));
+                return null;
+            }
+        }
+
+        int minBrandLength = config.get("min-brand-length") instanceof Number
+            ? ((Number) config.get("min-brand-length")).intValue() : 0;
+        int minMessages = config.get("min-messages") instanceof Number ? ((Number) config.get("min-messages")).intValue() : 0;
+        long maxAge = config.get("max-first-message-age-ms") instanceof Number
+            ? ((Number) config.get("max-first-message-age-ms")).longValue() : -1;
+        boolean customPayload = Boolean.TRUE.equals(config.get("custom-payload"));
+        boolean atTimeout = Boolean.TRUE.equals(config.get("at-timeout"));
+
+        if (handshakeMask == 0 && brand == null && minBrandLength <= 0 && minMessages <= 0 && !customPayload && maxAge < 0) {
+            logger.warn("Ignoring detection rule #{}: it has no conditions and would match every player", index);
+            return null;
+        }
+        return new Rule(loader, handshakeMask, brand, minBrandLength, minMessages, customPayload, maxAge, atTimeout);
+    }
+
+    private static ModLoader loaderOf(Object value) {
+        return value != null ? ModLoader.fromName(value.toString().toUpperCase()) : null;
+    }
+
+    private static Rule handshake(ModLoader loader) {
+        return new Rule(loader, 1 << loader.ordinal(), null, 0, 0, false, -1, false);
+    }
+
+    private static Rule brand(ModLoader loader, String pattern) {
+        return new Rule(loader, 0, Pattern.compile(pattern, Pattern.CASE_INSENSITIVE), 0, 0, false, -1, false);
+    }
+}
@@ -0,0 +1,198 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EvacuationPlanner - 后端服务器崩溃或重启时的批量疏散
+ * 同一台服务器在短时间内踢出大量玩家时进入疏散模式：每条路由只计算一次放置计划，
+ * 按各大厅的剩余容量分配，使各大厅的占用比例保持一致，而不是让每次踢出各自选择同一个"最空"的大厅。
+ * 疏散在该服务器停止踢出玩家一个窗口期后结束。
+ */
+public class EvacuationPlanner {
+
+    private final ProxyServer server;
+    private final Logger logger;
+    private final RoutingService routingService;
+    private final int burstThreshold;
+    private final long windowMillis;
+
+    // 以下字段均由 this 保护
+    private final Map<String, Burst> bursts = new HashMap<>();
+
+    private ScheduledTask expiryTask;
+
+    /**
+     * 单台被踢出服务器的踢出计数和疏散状态
+     */
+    private static final class Burst {
+        long windowStart;
+        long lastKick;
+        int count;
+        boolean evacuating;
+        // 路由 -> 放置计划，路由对象在同一张路由表内按 (协议号, 加载器) 共享
+        final Map<RoutingTable.Route, Plan> plans = new HashMap<>();
+        final Map<String, Integer> placed = new LinkedHashMap<>();
+        int unplaced;
+    }
+
+    /**
+     * 一条路由的放置计划：疏散开始时的负载快照加上计划已经分配的人数
+     */
+    private static final class Plan {
+        final List<List<Slot>> tiers = new ArrayList<>();
+    }
+
+    private static final class Slot {
+        final RegisteredServer server;
+        final int capacity; // 未知时为 0
+        final int weight;
+        int load;
+
+        Slot(RegisteredServer server, int capacity, int weight, int load) {
+            this.server = server;
+            this.capacity = capacity;
+            this.weight = weight;
+            this.load = load;
+        }
+
+        boolean isFull() {
+            return capacity > 0 && load >= capacity;
+        }
+
+        // 占用比例，容量未知时以权重作为分母
+        double fill() {
+            return (double) load / (capacity > 0 ? capacity : weight);
+        }
+    }
+
+    /**
+     * @param burstThreshold 窗口期内同一服务器踢出多少玩家时进入疏散模式
+     * @param windowMillis 计数窗口，也是疏散结束前的静默时间
+     */
+    public EvacuationPlanner(ProxyServer server, Logger logger, RoutingService routingService,
+                             int burstThreshold, long windowMillis) {
+        this.server = server;
+        this.logger = logger;
+        this.routingService = routingService;
+        this.burstThreshold = burstThreshold;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 启动疏散结束检测任务
+     */
+    public void start(Object plugin) {
+        expiryTask = server.getScheduler().buildTask(plugin, this::expire)
+            .repeat(1, TimeUnit.SECONDS)
+            .schedule();
+    }
+
+    public void stop() {
+        if (expiryTask != null) {
+            expiryTask.cancel();
+            expiryTask = null;
+        }
+    }
+
+    /**
+     * 记录一次踢出；被踢出服务器处于疏散模式时按放置计划返回目标大厅，
+     * 否则返回 null，由调用方走常规的路由选择
+     */
+    public synchronized RegisteredServer place(RegisteredServer kickedServer, RoutingTable table, RoutingTable.Route route) {
+        long now = System.currentTimeMillis();
+        String kickedName = kickedServer.getServerInfo().getName();
+        Burst burst = bursts.computeIfAbsent(kickedName, k -> new Burst());
+        if (!burst.evacuating && now - burst.windowStart > windowMillis) {
+            burst.windowStart = now;
+            burst.count = 0;
+        }
+        burst.count++;
+        burst.lastKick = now;
+
+        if (!burst.evacuating) {
+            if (burst.count < burstThreshold) {
+                return null;
+            }
+            burst.evacuating = true;
+            logger.warn("Server '{}' kicked {} players within {} ms, evacuating its players across lobbies by capacity",
+                kickedName, burst.count, windowMillis);
+        }
+        if (route.isEmpty()) {
+            burst.unplaced++;
+            return null;
+        }
+
+        Plan plan = burst.plans.computeIfAbsent(route, r -> createPlan(table, r));
+        RegisteredServer target = next(plan);
+        if (target == null) {
+            burst.unplaced++;
+            return null;
+        }
+        burst.placed.merge(target.getServerInfo().getName(), 1, Integer::sum);
+        return target;
+    }
+
+    private Plan createPlan(RoutingTable table, RoutingTable.Route route) {
+        // 每个层级只读取一次健康缓存和负载，之后的分配只在计划内计数
+        LoadBalancer.LoadView view = routingService.getLoadView(table);
+        Plan plan = new Plan();
+        for (List<RegisteredServer> tier : route.getTiers()) {
+            List<Slot> slots = new ArrayList<>();
+            for (RegisteredServer candidate : routingService.getHealthMonitor().getAvailable(tier)) {
+                slots.add(new Slot(candidate, view.getCapacity(candidate), view.getWeight(candidate), view.getLoad(candidate)));
+            }
+            plan.tiers.add(slots);
+        }
+        return plan;
+    }
+
+    // 在第一个还有空位的层级中选择占用比例最低的大厅
+    // 计划在疏散开始时生成，每次分配前重新检查熔断器和健康缓存，期间下线的大厅不再分配
+    private RegisteredServer next(Plan plan) {
+        ServerHealthMonitor healthMonitor = routingService.getHealthMonitor();
+        for (List<Slot> tier : plan.tiers) {
+            Slot best = null;
+            for (Slot slot : tier) {
+                if (slot.isFull() || !healthMonitor.isAvailable(slot.server)) {
+                    continue;
+                }
+                if (best == null || slot.fill() < best.fill()) {
+                    best = slot;
+                }
+            }
+            if (best != null) {
+                best.load++;
+                return best.server;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void expire() {
+        long deadline = System.currentTimeMillis() - windowMillis;
+        for (Iterator<Map.Entry<String, Burst>> it = bursts.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Burst> entry = it.next();
+            Burst burst = entry.getValue();
+            if (burst.lastKick >= deadline) {
+                continue;
+            }
+            if (burst.evacuating) {
+                logger.info("Evacuation of '{}' finished: {} player(s) placed {}{}", entry.getKey(),
+                    burst.placed.values().stream().mapToInt(Integer::intValue).sum(), burst.placed,
+                    burst.unplaced > 0 ? ", " + burst.unplaced + " with no lobby available" : "");
+            }
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * LoadBalancer - 在一组可用的大厅服务器中选出目标服务器的策略
+ * 通过配置文件 load-balancer.strategy 选择具体实现
+ */
+public interface LoadBalancer {
+
+    /**
+     * 从候选列表中选择一个服务器，候选列表为空时返回 null
+     */
+    RegisteredServer select(List<RegisteredServer> candidates, LoadView view);
+
+    /**
+     * 策略在配置文件中的名称
+     */
+    String getName();
+
+    /**
+     * 策略读取服务器负载信息的接口
+     */
+    interface LoadView {
+        /** 当前负载（玩家数） */
+        int getLoad(RegisteredServer server);
+
+        /** 配置的权重，默认为 1 */
+        int getWeight(RegisteredServer server);
+
+        /** 最近一次 ping 的延迟，未知时返回 Long.MAX_VALUE */
+        long getLatencyMillis(RegisteredServer server);
+
+        /** 服务器报告的最大玩家数，未知时返回 0 */
+        int getCapacity(RegisteredServer server);
+    }
+
+    /**
+     * 根据配置名称创建策略，无法识别时返回 null
+     */
+    static LoadBalancer fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name.toLowerCase()) {
+            case "least-loaded":
+                return new LeastLoaded();
+            case "power-of-two":
+            case "power-of-two-choices":
+                return new PowerOfTwoChoices();
+            case "weighted-round-robin":
+                return new WeightedRoundRobin();
+            case "least-latency":
+                return new LeastLatency();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 比较两个服务器的归一化负载，避免浮点运算
+     * 两者容量都已知时比较填充率 load / (capacity * weight)，否则比较 load / weight
+     */
+    static int compareWeightedLoad(RegisteredServer a, RegisteredServer b, LoadView view) {
+        long scaleA = view.getWeight(a);
+        long scaleB = view.getWeight(b);
+        int capacityA = view.getCapacity(a);
+        int capacityB = view.getCapacity(b);
+        if (capacityA > 0 && capacityB > 0) {
+            scaleA *= capacityA;
+            scaleB *= capacityB;
+        }
+        return Long.compare(view.getLoad(a) * scaleB, view.getLoad(b) * scaleA);
+    }
+
+    /**
+     * 选择按权重归一化后负载最低的服务器
+     */
+    final class LeastLoaded implements LoadBalancer {
+        @Override
+        public RegisteredServer select(List<RegisteredServer> candidates, LoadView view) {
+            RegisteredServer best = null;
+            for (RegisteredServer candidate : candidates) {
+                if (best == null || compareWeightedLoad(candidate, best, view) < 0) {
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public String getName() {
+            return "least-loaded";
+        }
+    }
+
+    /**
+     * 随机取两个候选，选择其中负载较低的一个
+     * 在登录高峰时不会让所有玩家都涌向同一个"最空"的服务器
+     */
+    final class PowerOfTwoChoices implements LoadBalancer {
+        @Override
+        public RegisteredServer select(List<RegisteredServer> candidates, LoadView view) {
+            int size = candidates.size();
+            if (size == 0) {
+                return null;
+            }
+            if (size == 1) {
+                return candidates.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            RegisteredServer a = candidates.get(first);
+            RegisteredServer b = candidates.get(second);
+            return compareWeightedLoad(a, b, view) <= 0 ? a : b;
+        }
+
+        @Override
+        public String getName() {
+            return "power-of-two";
+        }
+    }
+
+    /**
+     * 平滑加权轮询（与 nginx 相同的算法），按权重比例分配流量
+     */
+    final class WeightedRoundRobin implements LoadBalancer {
+        private final Map<String, Long> currentWeights = new HashMap<>();
+
+        @Override
+        public synchronized RegisteredServer select(List<RegisteredServer> candidates, LoadView view) {
+            RegisteredServer best = null;
+            long bestWeight = Long.MIN_VALUE;
+            long total = 0;
+            for (RegisteredServer candidate : candidates) {
+                int weight = view.getWeight(candidate);
+                total += weight;
+                long current = currentWeights.merge(candidate.getServerInfo().getName(), (long) weight, Long::sum);
+                if (current > bestWeight) {
+                    bestWeight = current;
+                    best = candidate;
+                }
+            }
+            if (best != null) {
+                currentWeights.merge(best.getServerInfo().getName(), -total, Long::sum);
+            }
+            return best;
+        }
+
+        @Override
+        public String getName() {
+            return "weighted-round-robin";
+        }
+    }
+
+    /**
+     * 选择最近一次 ping 延迟最低的服务器，延迟相同时选择负载较低的
+     */
+    final class LeastLatency implements LoadBalancer {
+        @Override
+        public RegisteredServer select(List<RegisteredServer> candidates, LoadView view) {
+            RegisteredServer best = null;
+            long bestLatency = Long.MAX_VALUE;
+            for (RegisteredServer candidate : candidates) {
+                long latency = view.getLatencyMillis(candidate);
+                if (best == null || latency < bestLatency
+                        || (latency == bestLatency && compareWeightedLoad(candidate, best, view) < 0)) {
+                    best = candidate;
+                    bestLatency = latency;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public String getName() {
+            return "least-latency";
+        }
+    }
+}
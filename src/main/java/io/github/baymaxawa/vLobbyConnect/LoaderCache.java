@@ -0,0 +1,227 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoaderCache - 记录每个玩家最近一次确认的模组加载器和协议号
+ * 老玩家重新登录时，在实时检测给出结果之前先以缓存作为先验。
+ *
+ * 文件格式为定长记录的追加日志：UUID(16) + 加载器序号(1) + 协议号(4) + 确认时间(8)，
+ * 启动时整体读入，后写入的记录覆盖先写入的；追加条数超过上限后重写为紧凑文件。
+ * 内存中按 LRU 保留最多 maxEntries 条，超过 TTL 的记录视为不存在。
+ * 调用方只更新内存中的记录，追加写入和压缩都交给单个后台写线程按提交顺序完成，不占用事件线程。
+ */
+public class LoaderCache {
+
+    private static final int RECORD_BYTES = 16 + 1 + 4 + 8;
+    private static final ModLoader[] LOADERS = ModLoader.values();
+
+    private final Logger logger;
+    private final Path file;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "vServerConnect-loader-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 由 this 保护
+    private final LinkedHashMap<UUID, Entry> entries;
+
+    // 以下字段只在 writer 线程中访问
+    private DataOutputStream out;
+    private int appendedSinceCompact;
+
+    private static final class Entry {
+        final ModLoader loader;
+        final int protocol;
+        final long confirmedAt;
+
+        Entry(ModLoader loader, int protocol, long confirmedAt) {
+            this.loader = loader;
+            this.protocol = protocol;
+            this.confirmedAt = confirmedAt;
+        }
+    }
+
+    public LoaderCache(Logger logger, Path file, int maxEntries, long ttlMillis) {
+        this.logger = logger;
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                return size() > LoaderCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 读入缓存文件，并在后台重写为只包含有效记录的紧凑文件
+     */
+    public synchronized void load() {
+        long expiry = System.currentTimeMillis() - ttlMillis;
+        int read = 0;
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    UUID playerId = new UUID(in.readLong(), in.readLong());
+                    int ordinal = in.readUnsignedByte();
+                    int protocol = in.readInt();
+                    long confirmedAt = in.readLong();
+                    read++;
+                    if (ordinal >= LOADERS.length || confirmedAt < expiry) {
+                        entries.remove(playerId);
+                        continue;
+                    }
+                    entries.put(playerId, new Entry(LOADERS[ordinal], protocol, confirmedAt));
+                }
+            } catch (EOFException e) {
+                // 文件结尾，末尾不完整的记录直接丢弃
+            } catch (IOException e) {
+                logger.warn("Failed to read loader cache {}, starting empty", file, e);
+                entries.clear();
+            }
+        }
+        submit(this::compact);
+        logger.info("Loaded {} cached mod loader fingerprint(s) ({} record(s) read).", entries.size(), read);
+    }
+
+    /**
+     * 玩家在相同协议号下最近一次确认的加载器，没有或已过期时返回 null
+     */
+    public synchronized ModLoader getPrior(UUID playerId, int protocol) {
+        Entry entry = entries.get(playerId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.confirmedAt < System.currentTimeMillis() - ttlMillis) {
+            entries.remove(playerId);
+            return null;
+        }
+        return entry.protocol == protocol ? entry.loader : null;
+    }
+
+    /**
+     * 记录实时检测确认的加载器，与已有记录相同且不久前确认过时不写文件
+     * 只在调用线程中更新内存，文件写入排队交给后台写线程
+     */
+    public void record(UUID playerId, ModLoader loader, int protocol) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Entry existing = entries.get(playerId);
+            if (existing != null && existing.loader == loader && existing.protocol == protocol
+                    && now - existing.confirmedAt < ttlMillis / 4) {
+                return;
+            }
+            entries.put(playerId, new Entry(loader, protocol, now));
+        }
+        submit(() -> append(playerId, loader, protocol, now));
+    }
+
+    /**
+     * 写完已排队的记录后关闭文件并停止后台写线程
+     */
+    public void close() {
+        submit(this::closeOutput);
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Timed out flushing loader cache {}, recent fingerprints may be lost", file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 已经关闭，内存中的记录仍然有效，只是不再持久化
+        }
+    }
+
+    // 只在 writer 线程中调用
+    private void append(UUID playerId, ModLoader loader, int protocol, long confirmedAt) {
+        if (out == null) {
+            return;
+        }
+        try {
+            write(out, playerId, loader, protocol, confirmedAt);
+            out.flush();
+            if (++appendedSinceCompact > maxEntries) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to append to loader cache {}", file, e);
+        }
+    }
+
+    // 只在 writer 线程中调用，内存记录只在复制快照时短暂加锁
+    private void compact() {
+        closeOutput();
+        Map<UUID, Entry> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(entries);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                for (Map.Entry<UUID, Entry> entry : snapshot.entrySet()) {
+                    Entry value = entry.getValue();
+                    write(compacted, entry.getKey(), value.loader, value.protocol, value.confirmedAt);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), RECORD_BYTES * 16));
+            appendedSinceCompact = 0;
+        } catch (IOException e) {
+            logger.warn("Failed to rewrite loader cache {}, fingerprints will not be persisted", file, e);
+        }
+    }
+
+    // 只在 writer 线程中调用
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close loader cache {}", file, e);
+            }
+            out = null;
+        }
+    }
+
+    private static void write(DataOutputStream stream, UUID playerId, ModLoader loader, int protocol, long confirmedAt)
+            throws IOException {
+        stream.writeLong(playerId.getMostSignificantBits());
+        stream.writeLong(playerId.getLeastSignificantBits());
+        stream.writeByte(loader.ordinal());
+        stream.writeInt(protocol);
+        stream.writeLong(confirmedAt);
+    }
+}
@@ -0,0 +1,173 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * LobbyAffinity - 记录每个玩家最近所在的大厅
+ * 玩家重新连接时优先回到原来的大厅，减少大厅区块缓存的抖动，也不会把一起上线的队伍拆散。
+ *
+ * 内存中按 LRU 保留最多 maxEntries 条，超过 TTL 的记录视为不存在。
+ * 代理关闭时整体写入文件，启动时在后台读入；读入完成之前查询一律视为没有记录，登录不会等待文件读取。
+ * 文件格式：UUID(16) + 记录时间(8) + 大厅名(writeUTF)，重复记录以后写入的为准。
+ */
+public class LobbyAffinity {
+
+    private final Logger logger;
+    private final Path file;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final double maxLoadRatio;
+
+    // 以下字段均由 this 保护
+    private final LinkedHashMap<UUID, Entry> entries;
+    private boolean loaded;
+
+    private volatile CompletableFuture<Void> loading;
+
+    private static final class Entry {
+        final String lobby;
+        final long seenAt;
+
+        Entry(String lobby, long seenAt) {
+            this.lobby = lobby;
+            this.seenAt = seenAt;
+        }
+    }
+
+    /**
+     * @param maxLoadRatio 上次的大厅负载达到容量的这个比例时不再优先回到该大厅
+     */
+    public LobbyAffinity(Logger logger, Path file, int maxEntries, long ttlMillis, double maxLoadRatio) {
+        this.logger = logger;
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.maxLoadRatio = maxLoadRatio;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                return size() > LobbyAffinity.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 在后台线程读入文件，读入的记录合并到内存时不覆盖期间新记录的大厅
+     */
+    public void loadAsync() {
+        loading = CompletableFuture.runAsync(this::load);
+    }
+
+    /**
+     * 玩家最近所在的大厅名，没有、已过期或文件尚未读入完成时返回 null
+     */
+    public synchronized String getLobby(UUID playerId) {
+        if (!loaded) {
+            return null;
+        }
+        Entry entry = entries.get(playerId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.seenAt < System.currentTimeMillis() - ttlMillis) {
+            entries.remove(playerId);
+            return null;
+        }
+        return entry.lobby;
+    }
+
+    /**
+     * 记录玩家当前所在的大厅
+     */
+    public synchronized void remember(UUID playerId, String lobby) {
+        entries.put(playerId, new Entry(lobby, System.currentTimeMillis()));
+    }
+
+    public double getMaxLoadRatio() {
+        return maxLoadRatio;
+    }
+
+    /**
+     * 把未过期的记录写入文件；会先等待后台读入结束，从未开始读入时文件保持不变
+     */
+    public void save() {
+        CompletableFuture<Void> pending = loading;
+        if (pending == null) {
+            return;
+        }
+        pending.join();
+        synchronized (this) {
+            write();
+        }
+    }
+
+    // 调用方必须持有 this 锁
+    private void write() {
+        long expiry = System.currentTimeMillis() - ttlMillis;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int written = 0;
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                for (Map.Entry<UUID, Entry> entry : entries.entrySet()) {
+                    Entry value = entry.getValue();
+                    if (value.seenAt < expiry) {
+                        continue;
+                    }
+                    out.writeLong(entry.getKey().getMostSignificantBits());
+                    out.writeLong(entry.getKey().getLeastSignificantBits());
+                    out.writeLong(value.seenAt);
+                    out.writeUTF(value.lobby);
+                    written++;
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved {} lobby affinity record(s).", written);
+        } catch (IOException e) {
+            logger.warn("Failed to save lobby affinity to {}", file, e);
+        }
+    }
+
+    // 在后台线程中执行，读文件时不持有锁
+    private void load() {
+        Map<UUID, Entry> read = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            long expiry = System.currentTimeMillis() - ttlMillis;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    UUID playerId = new UUID(in.readLong(), in.readLong());
+                    long seenAt = in.readLong();
+                    String lobby = in.readUTF();
+                    if (seenAt >= expiry) {
+                        read.put(playerId, new Entry(lobby, seenAt));
+                    }
+                }
+            } catch (EOFException e) {
+                // 文件结尾，末尾不完整的记录直接丢弃
+            } catch (IOException e) {
+                logger.warn("Failed to read lobby affinity {}, starting empty", file, e);
+                read.clear();
+            }
+        }
+        synchronized (this) {
+            // 读入期间 remember 的记录更新，保留它们
+            read.forEach(entries::putIfAbsent);
+            loaded = true;
+        }
+        logger.debug("Loaded {} lobby affinity record(s).", read.size());
+    }
+}
@@ -0,0 +1,42 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+/**
+ * ModLoader - 路由使用的模组加载器类型
+ * 名称与配置文件中的 LOADER 部分保持一致
+ */
+public enum ModLoader {
+    VANILLA,
+    FORGE,
+    FABRIC,
+    QUILT,
+    NEOFORGE;
+
+    private static final ModLoader[] VALUES = values();
+
+    /**
+     * 按名称解析加载器，无法识别时返回 null
+     */
+    public static ModLoader fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (ModLoader loader : VALUES) {
+            if (loader.name().equals(name)) {
+                return loader;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按名称解析加载器，无法识别时返回 VANILLA
+     */
+    public static ModLoader fromNameOrVanilla(String name) {
+        ModLoader loader = fromName(name);
+        return loader != null ? loader : VANILLA;
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+}
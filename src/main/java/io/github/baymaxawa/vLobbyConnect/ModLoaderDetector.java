@@ -8,14 +8,19 @@ import com.velocitypowered.api.event.connection.PreLoginEvent;
 import com.velocitypowered.api.event.connection.PostLoginEvent;
 import com.velocitypowered.api.event.player.PlayerResourcePackStatusEvent;
 import com.velocitypowered.api.proxy.Player;
-import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.network.ProtocolVersion;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ModLoaderDetector - 检测玩家使用的模组加载器
@@ -26,104 +31,184 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * 2. 插件消息监听 - 最准确的方法
  * 3. 品牌信息分析 - 备用方法
  * 4. 协议版本启发式推断 - 最后手段
+ *
+ * 每个玩家有一个检测完成的 future：收到决定性信号（模组加载器通道或可识别的品牌）时立即完成，
+ * 否则在自适应超时后以当时的最佳判断完成。
+ *
+ * 每个玩家的全部检测状态保存在同一个 PlayerRecord 中，只占一个 map 条目；
+ * 各加载器和各协议版本下各加载器的玩家数在加载器变化时增量维护。
+ *
+ * 启用 LoaderCache 时，老玩家登录后先以上次确认的加载器作为先验，
+ * 超时仍没有决定性信号时按先验路由；实时检测确认或纠正后再写回缓存。
  */
 public class ModLoaderDetector {
     
-    private final ProxyServer server;
+    // 自适应超时的下限，决定性信号通常在登录后几十到几百毫秒内到达
+    private static final long MIN_WAIT_MILLIS = 100;
+    // 品牌字符串的字节数上限，正常客户端的品牌远小于这个值
+    private static final int MAX_BRAND_BYTES = 128;
+
     private final Logger logger;
-    private final Object plugin; // 插件实例，用于调度器
-    private final Map<UUID, String> playerLoaders = new ConcurrentHashMap<>();
-    private final Map<UUID, String> playerBrands = new ConcurrentHashMap<>();
-    private final Map<UUID, ClientInfo> clientInfo = new ConcurrentHashMap<>();
-    private final Map<UUID, AtomicBoolean> detectionComplete = new ConcurrentHashMap<>();
+    private final long maxWaitMillis;
+    private final ChannelClassifier channelClassifier;
+    private final DetectionRules detectionRules;
+    private final LoaderCache loaderCache; // 可为 null
+    private final ActivityLog activityLog;
+    private final Map<UUID, PlayerRecord> players = new ConcurrentHashMap<>();
+    // 各加载器当前的玩家数，下标为 ModLoader.ordinal()
+    private final LongAdder[] loaderCounts = newCounters();
+    // 协议版本名称 -> 该版本下各加载器的玩家数
+    private final Map<String, LongAdder[]> versionLoaderCounts = new ConcurrentHashMap<>();
+    // 决定性信号相对登录完成时间的延迟的指数移动平均
+    private final AtomicLong signalLatencyAverage;
+    
+    /**
+     * 某一时刻玩家检测状态的只读副本，供调试命令读取
+     */
+    public static final class Snapshot {
+        private final ModLoader loader;
+        private final ModLoader channelLoader;
+        private final String brand;
+        private final int pluginMessageCount;
+        private final int handshakes;
+        private final boolean customPayload;
+        private final boolean complete;
+
+        Snapshot(ModLoader loader, ModLoader channelLoader, String brand, int pluginMessageCount, int handshakes,
+                 boolean customPayload, boolean complete) {
+            this.loader = loader;
+            this.channelLoader = channelLoader;
+            this.brand = brand;
+            this.pluginMessageCount = pluginMessageCount;
+            this.handshakes = handshakes;
+            this.customPayload = customPayload;
+            this.complete = complete;
+        }
+
+        public ModLoader getLoader() {
+            return loader;
+        }
+
+        /**
+         * 通道给出的加载器，没有收到加载器通道时为 VANILLA
+         */
+        public ModLoader getChannelLoader() {
+            return channelLoader != null ? channelLoader : ModLoader.VANILLA;
+        }
+
+        public String getBrand() {
+            return brand.isEmpty() ? "Unknown" : brand;
+        }
+
+        public int getPluginMessageCount() {
+            return pluginMessageCount;
+        }
+
+        public boolean hasHandshake(ModLoader loader) {
+            return (handshakes & PlayerRecord.handshakeFlag(loader)) != 0;
+        }
+
+        public boolean hasCustomPayload() {
+            return customPayload;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+    }
     
-    // 客户端信息类
-    private static class ClientInfo {
+    /**
+     * 单个玩家的检测状态，可变字段均由 this 保护
+     * 插件消息来自 Netty 线程，超时检测和命令来自其他线程
+     */
+    private static final class PlayerRecord {
+        // 握手标记按 1 << ModLoader.ordinal() 置位，与 DetectionRules 的特征一致
+        static final int FORGE_HANDSHAKE = 1 << ModLoader.FORGE.ordinal();
+        static final int FABRIC_HANDSHAKE = 1 << ModLoader.FABRIC.ordinal();
+        static final int QUILT_HANDSHAKE = 1 << ModLoader.QUILT.ordinal();
+        static final int NEOFORGE_HANDSHAKE = 1 << ModLoader.NEOFORGE.ordinal();
+        static final int CUSTOM_PAYLOAD = 1 << 30;
+
+        final CompletableFuture<String> detection = new CompletableFuture<>();
+        final LongAdder[] versionCounts;
+        ModLoader loader = ModLoader.VANILLA;
+        ModLoader channelLoader;
+        ModLoader confirmedLoader;
+        int flags;
         String brand = "";
-        boolean forgeHandshake = false;
-        boolean fabricHandshake = false;
-        boolean quiltHandshake = false;
-        boolean neoforgeHandshake = false;
-        boolean hasCustomPayload = false;
-        int pluginMessageCount = 0;
-        long firstMessageTime = 0;
-        String detectedLoader = "VANILLA";
+        int pluginMessageCount;
+        long firstMessageTime;
+        long loginTime;
+        boolean removed;
+        
+        PlayerRecord(LongAdder[] versionCounts) {
+            this.versionCounts = versionCounts;
+        }
         
-        void addPluginMessage(String channel, String data) {
+        synchronized void addPluginMessage(String channel, ModLoader channelLoader) {
             pluginMessageCount++;
             if (firstMessageTime == 0) {
                 firstMessageTime = System.currentTimeMillis();
             }
             
-            if (channel.startsWith("fml:") || channel.startsWith("forge:")) {
-                forgeHandshake = true;
-                detectedLoader = "FORGE";
-            } else if (channel.startsWith("fabric:") || channel.startsWith("quilt:")) {
-                if (channel.startsWith("quilt:")) {
-                    quiltHandshake = true;
-                    detectedLoader = "QUILT";
-                } else {
-                    fabricHandshake = true;
-                    detectedLoader = "FABRIC";
+            if (channelLoader != null) {
+                flags |= handshakeFlag(channelLoader);
+                if (channelLoader != ModLoader.VANILLA) {
+                    this.channelLoader = channelLoader;
                 }
-            } else if (channel.startsWith("neoforge:")) {
-                neoforgeHandshake = true;
-                detectedLoader = "NEOFORGE";
             }
             
             if (!"minecraft:brand".equals(channel) && !"brand".equals(channel)) {
-                hasCustomPayload = true;
+                flags |= CUSTOM_PAYLOAD;
             }
         }
         
-        String analyzeClientType() {
-            // 优先级：NeoForge > Forge > Quilt > Fabric > Vanilla
-            if (neoforgeHandshake) return "NEOFORGE";
-            if (forgeHandshake) return "FORGE";
-            if (quiltHandshake) return "QUILT";
-            if (fabricHandshake) return "FABRIC";
-            
-            // 分析品牌信息
-            String lowerBrand = brand.toLowerCase();
-            if (lowerBrand.contains("neoforge")) return "NEOFORGE";
-            if (lowerBrand.contains("forge") && !lowerBrand.contains("neoforge")) return "FORGE";
-            if (lowerBrand.contains("quilt")) return "QUILT";
-            if (lowerBrand.contains("fabric")) return "FABRIC";
-            
-            // 基于插件消息数量的启发式检测
-            if (pluginMessageCount > 3 && hasCustomPayload) {
-                return "FORGE"; // 大量插件消息通常是Forge
-            }
-            
-            return "VANILLA";
+        synchronized boolean hasHandshake() {
+            return (flags & (FORGE_HANDSHAKE | FABRIC_HANDSHAKE | QUILT_HANDSHAKE | NEOFORGE_HANDSHAKE)) != 0;
+        }
+        
+        synchronized ModLoader loader() {
+            return loader;
+        }
+        
+        synchronized String brand() {
+            return brand;
+        }
+        
+        synchronized int pluginMessageCount() {
+            return pluginMessageCount;
+        }
+        
+        synchronized Snapshot snapshot() {
+            return new Snapshot(loader, channelLoader, brand, pluginMessageCount, flags & ~CUSTOM_PAYLOAD,
+                (flags & CUSTOM_PAYLOAD) != 0, detection.isDone());
+        }
+        
+        synchronized DetectionRules.Features features() {
+            long firstMessageAge = firstMessageTime > 0 ? System.currentTimeMillis() - firstMessageTime : -1;
+            return new DetectionRules.Features(flags & ~CUSTOM_PAYLOAD, brand, pluginMessageCount,
+                (flags & CUSTOM_PAYLOAD) != 0, firstMessageAge);
+        }
+        
+        static int handshakeFlag(ModLoader loader) {
+            return loader == ModLoader.VANILLA ? 0 : 1 << loader.ordinal();
         }
     }
     
-    // 已知的模组加载器标识符 - 扩展版本
-    private static final String[] FORGE_CHANNELS = {
-        "fml:handshake", "fml:loginwrapper", "forge:register", "forge:handshake",
-        "fml:play", "forge:tie", "fml:login", "forge:modlist", "fml:modlist"
-    };
-    
-    private static final String[] FABRIC_CHANNELS = {
-        "fabric:registry", "fabric:resource", "fabric:ping", "fabric:networking",
-        "fabric:server:login", "fabric:custom_payload", "fabric:minecraft"
-    };
-    
-    private static final String[] QUILT_CHANNELS = {
-        "quilt:registry", "quilt:resource", "quilt:ping", "quilt:networking",
-        "quilt:server:login", "quilt:custom_payload", "quilt:minecraft"
-    };
-    
-    private static final String[] NEOFORGE_CHANNELS = {
-        "neoforge:register", "neoforge:handshake", "neoforge:networking",
-        "neoforge:modlist", "neoforge:config"
-    };
-    
-    public ModLoaderDetector(ProxyServer server, Logger logger, Object plugin) {
-        this.server = server;
+    /**
+     * @param maxWaitMillis 登录时最多等待决定性信号的时间
+     * @param loaderCache 持久化的加载器缓存，为 null 时不使用先验
+     * @param activityLog 每个玩家的检测细节通过它采样和限速输出
+     */
+    public ModLoaderDetector(Logger logger, long maxWaitMillis, ChannelClassifier channelClassifier,
+                             DetectionRules detectionRules, LoaderCache loaderCache, ActivityLog activityLog) {
         this.logger = logger;
-        this.plugin = plugin;
+        this.channelClassifier = channelClassifier;
+        this.detectionRules = detectionRules;
+        this.loaderCache = loaderCache;
+        this.activityLog = activityLog;
+        this.maxWaitMillis = Math.max(MIN_WAIT_MILLIS, maxWaitMillis);
+        this.signalLatencyAverage = new AtomicLong(this.maxWaitMillis / 2);
     }
     
     /**
@@ -138,7 +223,7 @@ public class ModLoaderDetector {
         logger.debug("Handshake detected for connection: {} (protocol: {})", connectionId, protocolVersion);
         
         // 在握手阶段，我们主要进行初步的连接分析
-        // 无法存储到playerLoaders中，因为还没有UUID
+        // 无法创建检测记录，因为还没有UUID
         // 只能记录握手信息，等待PreLogin事件
         
         try {
@@ -146,7 +231,7 @@ public class ModLoaderDetector {
             String initialDetection = performHandshakeAnalysis(event.getConnection());
             
             if (!"VANILLA".equals(initialDetection)) {
-                logger.info("Early detection during handshake for {}: {}", connectionId, initialDetection);
+                logger.debug("Early detection during handshake for {}: {}", connectionId, initialDetection);
             }
             
         } catch (Exception e) {
@@ -206,9 +291,7 @@ public class ModLoaderDetector {
      */
     @Subscribe
     public void onPreLogin(PreLoginEvent event) {
-        UUID playerId = event.getUniqueId();
-        // 初始化玩家为VANILLA，直到检测到其他加载器
-        playerLoaders.put(playerId, "VANILLA");
+        // 检测记录在登录完成时创建，在此之前玩家视为VANILLA
         logger.debug("Initialized mod loader detection for player: {}", event.getUsername());
     }
     
@@ -223,438 +306,368 @@ public class ModLoaderDetector {
         
         Player player = (Player) event.getSource();
         String channel = event.getIdentifier().getId();
-        UUID playerId = player.getUniqueId();
         
-        // 获取或创建客户端信息
-        ClientInfo info = clientInfo.computeIfAbsent(playerId, k -> new ClientInfo());
+        // 检测记录只在登录完成时创建；玩家已经断开时的迟到消息直接忽略
+        PlayerRecord record = players.get(player.getUniqueId());
+        if (record == null) {
+            return;
+        }
         
-        // 记录所有插件消息
-        String dataStr = "";
-        try {
-            dataStr = new String(event.getData());
-        } catch (Exception e) {
-            dataStr = "[binary data]";
+        // 只记录通道名和长度，不解码负载
+        if (activityLog.isDetailEnabled(player)) {
+            activityLog.detail(ActivityLog.Category.DETECTION, player, "Plugin message from {}: channel={}, {} bytes",
+                player.getUsername(), channel, event.dataAsInputStream().available());
         }
         
-        logger.debug("Plugin message from {}: channel={}, data={}", player.getUsername(), channel, dataStr);
+        // 通道名只分类一次，结果同时用于握手标记和加载器判断
+        ModLoader channelLoader = channelClassifier.classify(channel);
         
-        // 添加插件消息到客户端信息
-        info.addPluginMessage(channel, dataStr);
+        // 添加插件消息到检测记录
+        record.addPluginMessage(channel, channelLoader);
         
-        // 处理品牌信息
+        // 处理品牌信息，只有这个通道需要读取负载
         if (channel.equals("minecraft:brand") || channel.equals("brand")) {
-            info.brand = dataStr;
-            playerBrands.put(playerId, dataStr);
-            logger.debug("Brand received from {}: {}", player.getUsername(), dataStr);
+            String brand = readBrand(event.dataAsInputStream());
+            if (brand == null) {
+                activityLog.detail(ActivityLog.Category.DETECTION, player, "Ignoring malformed or oversized brand from {}",
+                    player.getUsername());
+                return;
+            }
+            synchronized (record) {
+                record.brand = brand;
+            }
+            activityLog.detail(ActivityLog.Category.DETECTION, player, "Brand received from {}: {}", player.getUsername(), brand);
+            if ("vanilla".equalsIgnoreCase(brand) && !record.hasHandshake()) {
+                // 明确的原版品牌可以纠正缓存中过时的模组加载器
+                confirmLoader(player, record, ModLoader.VANILLA);
+            }
+        } else if (channelLoader == null || channelLoader == ModLoader.VANILLA) {
+            // 与加载器无关的通道不会改变规则的结果
+            return;
         }
         
-        // 检测特定的模组加载器通道
-        String detectedLoader = detectFromChannel(channel);
-        if (!"VANILLA".equals(detectedLoader)) {
-            info.detectedLoader = detectedLoader;
-            playerLoaders.put(playerId, detectedLoader);
-            logger.info("Detected {} for player: {} from channel: {}", detectedLoader, player.getUsername(), channel);
+        // 每个信号都按规则对累积的特征重新求值，规则顺序即加载器优先级
+        DetectionRules.Features features = record.features();
+        ModLoader evaluated = detectionRules.evaluate(features, false);
+        // 模组客户端登录时会发送上百条注册消息，只在结果变化时记录
+        if (evaluated != ModLoader.VANILLA && setLoader(record, evaluated)) {
+            activityLog.detail(ActivityLog.Category.DETECTION, player, "Detected {} for player: {} from channel: {}",
+                evaluated, player.getUsername(), channel);
+        }
+        // 更高优先级的加载器仍可能出现时（例如 Quilt 先注册 fabric: 通道）不提前结束等待
+        ModLoader settled = detectionRules.evaluateSettled(features);
+        if (settled != null && settled != ModLoader.VANILLA) {
+            confirmLoader(player, record, settled);
+            completeDetection(player, record, settled);
         }
     }
     
     /**
-     * 检测特定通道对应的模组加载器
+     * 解析品牌负载：VarInt 长度前缀加 UTF-8 字符串
+     * 长度超过 MAX_BRAND_BYTES 或格式错误时返回 null
      */
-    private String detectFromChannel(String channel) {
-        if (isNeoForgeChannel(channel)) return "NEOFORGE";
-        if (isForgeChannel(channel)) return "FORGE";
-        if (isQuiltChannel(channel)) return "QUILT";
-        if (isFabricChannel(channel)) return "FABRIC";
-        return "VANILLA";
+    static String readBrand(ByteArrayInputStream in) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift >= 35) {
+                return null;
+            }
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > MAX_BRAND_BYTES || length > in.available()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.read(bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
     
     /**
-     * 监听玩家登录完成事件，进行最终检测
+     * 监听玩家登录完成事件，进行初步检测并开始等待决定性信号
      */
     @Subscribe
     public void onPostLogin(PostLoginEvent event) {
         Player player = event.getPlayer();
-        UUID playerId = player.getUniqueId();
+        PlayerRecord record = createRecord(player);
+        activityLog.detail(ActivityLog.Category.DETECTION, player, "Login from {}: protocol {}, virtual host {}",
+            player.getUsername(), player.getProtocolVersion().getProtocol(), player.getVirtualHost().orElse(null));
         
-        // 立即执行检测，并延迟执行更深入的检测
-        performFinalDetection(player);
+        // 立即执行检测
+        performFinalDetection(player, record);
+        applyPrior(player, record);
         
-        // 延迟执行更深入的检测，给插件消息一些时间到达
-        server.getScheduler().buildTask(plugin, () -> {
-            performDeepDetection(player);
-        }).delay(1, java.util.concurrent.TimeUnit.SECONDS).schedule();
+        CompletableFuture<String> detection = record.detection;
+        detection.thenAccept(loader -> logDetectionReport(player, record, loader));
+        if (detection.isDone()) {
+            return;
+        }
+        synchronized (record) {
+            record.loginTime = System.currentTimeMillis();
+        }
+        
+        // 没有决定性信号时，在超时后以当时的最佳判断完成检测
+        CompletableFuture.delayedExecutor(currentWaitMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (!detection.isDone()) {
+                performDeepDetection(player, record);
+            }
+        });
     }
     
     /**
-     * 执行最终的模组加载器检测
+     * 玩家检测完成的 future，收到决定性信号或超时后以模组加载器名称完成
+     * 没有检测记录（未经过登录完成事件或已经断开）时立即以 VANILLA 完成
      */
-    private void performFinalDetection(Player player) {
-        UUID playerId = player.getUniqueId();
-        ClientInfo info = clientInfo.get(playerId);
-        
-        if (info == null) {
-            // 如果没有收到任何插件消息，进行基础检测
-            String protocolVersion = player.getProtocolVersion().getName();
-            String brand = playerBrands.getOrDefault(playerId, "Unknown");
-            String detectedLoader = detectFromBrand(brand);
-            
-            if ("VANILLA".equals(detectedLoader)) {
-                // 基于协议版本进行启发式检测
-                detectedLoader = heuristicDetection(protocolVersion, brand);
-            }
-            
-            playerLoaders.put(playerId, detectedLoader);
-            logger.debug("Initial detection for {}: {} (protocol: {}, brand: {})", 
-                player.getUsername(), detectedLoader, protocolVersion, brand);
-            return;
-        }
-        
-        // 分析客户端信息
-        String finalLoader = info.analyzeClientType();
-        playerLoaders.put(playerId, finalLoader);
-        
-        logger.debug("Initial detection for {}: {}", player.getUsername(), finalLoader);
+    public CompletableFuture<String> awaitDetection(Player player) {
+        PlayerRecord record = players.get(player.getUniqueId());
+        return record != null ? record.detection : CompletableFuture.completedFuture(ModLoader.VANILLA.name());
     }
     
     /**
-     * 执行更深入的检测（延迟1秒后）
+     * 当前的等待时间：最近决定性信号平均延迟的两倍，限制在 [MIN_WAIT_MILLIS, maxWaitMillis]
      */
-    private void performDeepDetection(Player player) {
-        UUID playerId = player.getUniqueId();
-        ClientInfo info = clientInfo.get(playerId);
-        
-        String currentLoader = playerLoaders.get(playerId);
-        String deepLoader = currentLoader;
-        
-        // 如果当前是VANILLA，尝试更深入的分析
-        if ("VANILLA".equals(currentLoader)) {
-            if (info != null) {
-                deepLoader = deepClientAnalysis(info, player.getProtocolVersion().getName());
-                if (!"VANILLA".equals(deepLoader)) {
-                    playerLoaders.put(playerId, deepLoader);
-                    logger.info("Deep analysis updated loader for player {}: {} -> {}", 
-                        player.getUsername(), currentLoader, deepLoader);
-                }
-            }
+    public long currentWaitMillis() {
+        return Math.max(MIN_WAIT_MILLIS, Math.min(maxWaitMillis, signalLatencyAverage.get() * 2));
+    }
+    
+    /**
+     * 收到决定性信号，立即完成检测并更新平均延迟
+     */
+    private void completeDetection(Player player, PlayerRecord record, ModLoader loader) {
+        if (record.detection.isDone()) {
+            return;
         }
-        
-        // 记录最终的检测信息
-        if (info != null) {
-            logger.info("=== Final Client Detection Report for {} ===", player.getUsername());
-            logger.info("Final Detected Loader: {}", deepLoader);
-            logger.info("Brand: {}", info.brand);
-            logger.info("Forge Handshake: {}", info.forgeHandshake);
-            logger.info("Fabric Handshake: {}", info.fabricHandshake);
-            logger.info("Quilt Handshake: {}", info.quiltHandshake);
-            logger.info("NeoForge Handshake: {}", info.neoforgeHandshake);
-            logger.info("Plugin Message Count: {}", info.pluginMessageCount);
-            logger.info("Has Custom Payload: {}", info.hasCustomPayload);
-        } else {
-            logger.info("=== Final Client Detection Report for {} ===", player.getUsername());
-            logger.info("Final Detected Loader: {} (no plugin messages received)", deepLoader);
+        long loginTime;
+        synchronized (record) {
+            loginTime = record.loginTime;
+            record.loginTime = 0;
+        }
+        if (loginTime > 0) {
+            long latency = System.currentTimeMillis() - loginTime;
+            signalLatencyAverage.updateAndGet(average -> average + (latency - average) / 4);
+        }
+        if (record.detection.complete(loader.name())) {
+            activityLog.detail(ActivityLog.Category.DETECTION, player, "Detection for {} completed early by a decisive signal: {}",
+                player.getUsername(), loader);
         }
-        
-        detectionComplete.put(playerId, new AtomicBoolean(true));
     }
     
     /**
-     * 基于协议版本和品牌信息的启发式检测
+     * 实时检测还没有结果时，使用缓存中相同协议号下上次确认的加载器
      */
-    private String heuristicDetection(String protocolVersion, String brand) {
-        // 基于协议版本的启发式规则
-        if (protocolVersion.startsWith("1.20") || protocolVersion.startsWith("1.19")) {
-            String lowerBrand = brand.toLowerCase();
-            if (lowerBrand.contains("forge") || lowerBrand.contains("fabric") || 
-                lowerBrand.contains("quilt") || lowerBrand.contains("neoforge")) {
-                return detectFromBrand(brand);
-            }
-            
-            // 对于这些版本，如果品牌信息不明确，可能是VANILLA
-            return "VANILLA";
+    private void applyPrior(Player player, PlayerRecord record) {
+        if (loaderCache == null || record.loader() != ModLoader.VANILLA) {
+            return;
+        }
+        ModLoader prior = loaderCache.getPrior(player.getUniqueId(), player.getProtocolVersion().getProtocol());
+        if (prior != null && prior != ModLoader.VANILLA) {
+            setLoader(record, prior);
+            activityLog.detail(ActivityLog.Category.DETECTION, player, "Using cached loader {} for {} until live detection confirms it",
+                prior, player.getUsername());
         }
-        
-        return "VANILLA";
     }
     
-    private boolean isForgeChannel(String channel) {
-        for (String forgeChannel : FORGE_CHANNELS) {
-            if (channel.startsWith(forgeChannel)) {
-                return true;
+    /**
+     * 实时检测确认了加载器，写回缓存；同一玩家相同结果只写一次
+     */
+    private void confirmLoader(Player player, PlayerRecord record, ModLoader loader) {
+        if (loaderCache == null) {
+            return;
+        }
+        synchronized (record) {
+            if (record.removed || record.confirmedLoader == loader) {
+                return;
             }
+            record.confirmedLoader = loader;
         }
-        return false;
+        loaderCache.record(player.getUniqueId(), loader, player.getProtocolVersion().getProtocol());
     }
     
-    private boolean isFabricChannel(String channel) {
-        for (String fabricChannel : FABRIC_CHANNELS) {
-            if (channel.startsWith(fabricChannel)) {
-                return true;
-            }
+    /**
+     * 登录完成时创建玩家的检测记录并计入 VANILLA，只由 onPostLogin 调用，
+     * 断开后的迟到事件不会重新创建记录
+     */
+    private PlayerRecord createRecord(Player player) {
+        PlayerRecord record = players.get(player.getUniqueId());
+        if (record != null) {
+            return record;
         }
-        return false;
+        LongAdder[] versionCounts = versionLoaderCounts.computeIfAbsent(
+            player.getProtocolVersion().getName(), k -> newCounters());
+        return players.computeIfAbsent(player.getUniqueId(), k -> {
+            PlayerRecord created = new PlayerRecord(versionCounts);
+            count(created, ModLoader.VANILLA, 1);
+            return created;
+        });
     }
     
-    private boolean isQuiltChannel(String channel) {
-        for (String quiltChannel : QUILT_CHANNELS) {
-            if (channel.startsWith(quiltChannel)) {
-                return true;
-            }
-        }
-        return false;
+    private void count(PlayerRecord record, ModLoader loader, int delta) {
+        loaderCounts[loader.ordinal()].add(delta);
+        record.versionCounts[loader.ordinal()].add(delta);
     }
     
-    private boolean isNeoForgeChannel(String channel) {
-        for (String neoforgeChannel : NEOFORGE_CHANNELS) {
-            if (channel.startsWith(neoforgeChannel)) {
-                return true;
-            }
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[ModLoader.count()];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
         }
-        return false;
+        return counters;
     }
     
     /**
-     * 获取玩家的模组加载器 - 使用新的ClientDetectorPlus风格检测
-     * @param player 玩家对象
-     * @return 模组加载器名称，默认返回 "VANILLA"
+     * 更新玩家的加载器并增量维护分布计数，加载器发生变化时返回 true
      */
-    public String getModLoader(Player player) {
-        UUID playerId = player.getUniqueId();
-        String loader = playerLoaders.get(playerId);
-        
-        if (loader == null) {
-            // 如果没有检测信息，立即进行检测
-            ClientInfo info = clientInfo.get(playerId);
-            if (info != null) {
-                // 如果有客户端信息，立即分析
-                loader = info.analyzeClientType();
-                playerLoaders.put(playerId, loader);
-                logger.debug("Analyzed client info for {}: {}", player.getUsername(), loader);
-            } else {
-                // 没有客户端信息，使用品牌信息检测
-                String brand = playerBrands.getOrDefault(playerId, "");
-                if (!brand.isEmpty()) {
-                    loader = detectFromBrand(brand);
-                } else {
-                    // 最后使用协议版本启发式检测
-                    loader = heuristicDetection(player.getProtocolVersion().getName(), brand);
-                }
-                playerLoaders.put(playerId, loader);
-                logger.debug("Brand/Version detection for {}: {}", player.getUsername(), loader);
+    private boolean setLoader(PlayerRecord record, ModLoader loader) {
+        ModLoader previous;
+        synchronized (record) {
+            if (record.removed || record.loader == loader) {
+                return false;
             }
+            previous = record.loader;
+            record.loader = loader;
         }
-        
-        return loader;
+        count(record, previous, -1);
+        count(record, loader, 1);
+        return true;
     }
     
     /**
-     * 获取玩家的模组加载器，等待一小段时间以获得更准确的检测结果
-     * @param player 玩家对象
-     * @return 模组加载器名称
+     * 执行最终的模组加载器检测
      */
-    public String getModLoaderWithDelay(Player player) {
-        // 首先尝试获取当前检测结果
-        String loader = getModLoader(player);
-        
-        UUID playerId = player.getUniqueId();
-        AtomicBoolean isComplete = detectionComplete.get(playerId);
+    private void performFinalDetection(Player player, PlayerRecord record) {
+        ModLoader detectedLoader = detectionRules.evaluate(record.features(), false);
+        setLoader(record, detectedLoader);
         
-        // 如果检测未完成且当前为VANILLA，尝试更深入的检测
-        if ((isComplete == null || !isComplete.get()) && "VANILLA".equals(loader)) {
-            // 分析客户端信息
-            ClientInfo info = clientInfo.get(playerId);
-            if (info != null) {
-                String deepAnalysis = deepClientAnalysis(info, player.getProtocolVersion().getName());
-                if (!"VANILLA".equals(deepAnalysis)) {
-                    playerLoaders.put(playerId, deepAnalysis);
-                    logger.info("Deep analysis updated loader for player {}: {} -> {}", 
-                        player.getUsername(), loader, deepAnalysis);
-                    return deepAnalysis;
-                }
-            }
-            
-            // 最终尝试品牌检测
-            String brand = playerBrands.getOrDefault(playerId, "");
-            if (!brand.isEmpty()) {
-                String brandLoader = detectFromBrand(brand);
-                if (!"VANILLA".equals(brandLoader)) {
-                    playerLoaders.put(playerId, brandLoader);
-                    logger.info("Updated loader {} for player {} from brand: {}", 
-                        brandLoader, player.getUsername(), brand);
-                    return brandLoader;
-                }
-            }
-        }
-        
-        // 记录最终检测结果
-        logger.debug("Final loader detection for player {}: {}", player.getUsername(), loader);
-        return loader;
+        activityLog.detail(ActivityLog.Category.DETECTION, player, "Initial detection for {}: {} (protocol: {}, brand: {})",
+            player.getUsername(), detectedLoader, player.getProtocolVersion().getName(), record.brand());
     }
     
     /**
-     * 深度客户端分析 - 类似于ClientDetectorPlus的分析方法
+     * 等待超时后执行更深入的检测，并以结果完成检测 future
      */
-    private String deepClientAnalysis(ClientInfo info, String protocolVersion) {
-        // 分析插件消息模式
-        if (info.pluginMessageCount > 5) {
-            // 大量插件消息通常表示模组客户端
-            if (info.neoforgeHandshake) return "NEOFORGE";
-            if (info.forgeHandshake) return "FORGE";
-            if (info.quiltHandshake) return "QUILT";
-            if (info.fabricHandshake) return "FABRIC";
-            return "FORGE"; // 默认假设为Forge
+    private void performDeepDetection(Player player, PlayerRecord record) {
+        ModLoader currentLoader = record.loader();
+        
+        // 按全部规则（包括超时规则）做最终判断，没有规则匹配时保留当前结果（可能来自缓存的先验）
+        ModLoader deepLoader = detectionRules.evaluate(record.features(), true);
+        if (deepLoader == ModLoader.VANILLA) {
+            deepLoader = currentLoader;
+        } else if (setLoader(record, deepLoader)) {
+            activityLog.detail(ActivityLog.Category.DETECTION, player, "Deep analysis updated loader for player {}: {} -> {}",
+                player.getUsername(), currentLoader, deepLoader);
         }
         
-        // 分析品牌信息的复杂性
-        if (info.brand.length() > 20) {
-            // 复杂的品牌信息通常表示模组客户端
-            String lowerBrand = info.brand.toLowerCase();
-            if (lowerBrand.contains("neoforge")) return "NEOFORGE";
-            if (lowerBrand.contains("forge")) return "FORGE";
-            if (lowerBrand.contains("quilt")) return "QUILT";
-            if (lowerBrand.contains("fabric")) return "FABRIC";
+        synchronized (record) {
+            record.loginTime = 0;
         }
-        
-        // 分析时间模式
-        long currentTime = System.currentTimeMillis();
-        if (info.firstMessageTime > 0 && (currentTime - info.firstMessageTime) < 1000) {
-            // 快速发送的插件消息可能是模组客户端
-            return "FORGE";
-        }
-        
-        return "VANILLA";
+        record.detection.complete(deepLoader.name());
     }
     
     /**
-     * 启发式检测基于协议版本和其他特征
+     * 记录最终的检测信息，合并为一行，只在 DEBUG 级别或玩家被追踪时输出
      */
-    private String heuristicDetect(Player player, String protocolVersion) {
-        // 对于较新的版本，如果玩家使用了特定的端口或连接模式，可能是模组客户端
-        if (protocolVersion.startsWith("1.20") || protocolVersion.startsWith("1.19")) {
-            // 检查玩家的连接信息
-            String remoteAddress = player.getRemoteAddress().toString();
-            logger.debug("Heuristic check for {} - version: {}, address: {}", 
-                player.getUsername(), protocolVersion, remoteAddress);
-            
-            // 这里可以添加更多的启发式规则
-            // 目前返回VANILLA作为默认值
+    private void logDetectionReport(Player player, PlayerRecord record, String loader) {
+        if (!activityLog.isDetailEnabled(player)) {
+            return;
         }
-        return "VANILLA";
-    }
-    
-    /**
-     * 移除玩家的模组加载器信息（玩家断开连接时调用）
-     */
-    public void removePlayer(Player player) {
-        UUID playerId = player.getUniqueId();
-        String loader = playerLoaders.remove(playerId);
-        playerBrands.remove(playerId);
-        clientInfo.remove(playerId);
-        detectionComplete.remove(playerId);
-        
-        logger.debug("Removed mod loader info for player: {} (was: {})", player.getUsername(), loader);
+        String brand;
+        int messageCount;
+        int flags;
+        synchronized (record) {
+            brand = record.brand;
+            messageCount = record.pluginMessageCount;
+            flags = record.flags;
+        }
+        activityLog.detail(ActivityLog.Category.DETECTION, player,
+            "Detection report for {}: loader={}, brand={}, messages={}, handshakes[forge={}, fabric={}, quilt={}, neoforge={}], customPayload={}",
+            player.getUsername(), loader, brand, messageCount,
+            (flags & PlayerRecord.FORGE_HANDSHAKE) != 0,
+            (flags & PlayerRecord.FABRIC_HANDSHAKE) != 0,
+            (flags & PlayerRecord.QUILT_HANDSHAKE) != 0,
+            (flags & PlayerRecord.NEOFORGE_HANDSHAKE) != 0,
+            (flags & PlayerRecord.CUSTOM_PAYLOAD) != 0);
     }
     
     /**
-     * 基于品牌信息检测模组加载器
-     * 这是一个备用检测方法
+     * 获取玩家的模组加载器 - 使用新的ClientDetectorPlus风格检测
+     * @param player 玩家对象
+     * @return 模组加载器名称，默认返回 "VANILLA"
      */
-    public String detectFromBrand(String brand) {
-        if (brand == null || brand.isEmpty()) {
-            return "VANILLA";
-        }
-        
-        String lowerBrand = brand.toLowerCase();
-        
-        // 记录接收到的品牌信息用于调试
-        logger.debug("Received brand message: {}", brand);
-        
-        // 按优先级检测
-        if (lowerBrand.contains("neoforge")) {
-            logger.debug("Detected NeoForge from brand: {}", brand);
-            return "NEOFORGE";
-        } else if (lowerBrand.contains("forge") && !lowerBrand.contains("neoforge")) {
-            logger.debug("Detected Forge from brand: {}", brand);
-            return "FORGE";
-        } else if (lowerBrand.contains("fabric")) {
-            logger.debug("Detected Fabric from brand: {}", brand);
-            return "FABRIC";
-        } else if (lowerBrand.contains("quilt")) {
-            logger.debug("Detected Quilt from brand: {}", brand);
-            return "QUILT";
-        } else if (lowerBrand.contains("vanilla")) {
-            logger.debug("Detected Vanilla from brand: {}", brand);
-            return "VANILLA";
-        } else if (lowerBrand.contains("minecraft")) {
-            // 如果只是包含 "minecraft" 但没有其他模组信息，可能是VANILLA
-            logger.debug("Assuming Vanilla from Minecraft brand: {}", brand);
+    public String getModLoader(Player player) {
+        PlayerRecord record = players.get(player.getUniqueId());
+        if (record == null) {
+            // 没有检测记录（还没有登录完成），视为VANILLA
             return "VANILLA";
         }
-        
-        // 如果品牌信息不明确，返回VANILLA
-        logger.debug("Unknown brand, assuming Vanilla: {}", brand);
-        return "VANILLA";
+        return record.loader().name();
     }
     
     /**
-     * 基于协议版本检测可能的模组加载器
-     * 这是一个启发式方法，提供基本推断
+     * 移除玩家的模组加载器信息（玩家断开连接时调用）
      */
-    public String detectFromVersion(String protocolVersion) {
-        if (protocolVersion == null) {
-            return "VANILLA";
-        }
-        
-        // 某些版本通常与特定的模组加载器生态更相关
-        if (protocolVersion.startsWith("1.20.1") || 
-            protocolVersion.startsWith("1.19.2") ||
-            protocolVersion.startsWith("1.18.2")) {
-            // 这些版本有活跃的模组社区，但我们需要实际检测
-            return "VANILLA"; // 保持默认，等待实际检测
+    public void removePlayer(Player player) {
+        PlayerRecord record = players.remove(player.getUniqueId());
+        String loader = null;
+        if (record != null) {
+            ModLoader removedLoader;
+            synchronized (record) {
+                record.removed = true;
+                removedLoader = record.loader;
+            }
+            count(record, removedLoader, -1);
+            loader = removedLoader.name();
+            // 仍在等待的登录流程不会被挂起
+            record.detection.complete(loader);
         }
         
-        return "VANILLA";
+        logger.debug("Removed mod loader info for player: {} (was: {})", player.getUsername(), loader);
     }
     
     /**
-     * 获取玩家的品牌信息（用于调试）
+     * 玩家当前检测状态的快照（用于调试），没有检测记录时返回 null
      */
-    public String getPlayerBrand(Player player) {
-        return playerBrands.getOrDefault(player.getUniqueId(), "Unknown");
+    public Snapshot getSnapshot(Player player) {
+        PlayerRecord record = players.get(player.getUniqueId());
+        return record != null ? record.snapshot() : null;
     }
     
     /**
-     * 获取详细的客户端检测信息（用于深度调试）
+     * 获取当前检测统计信息
      */
-    public String getClientDetectionDetails(Player player) {
-        UUID playerId = player.getUniqueId();
-        ClientInfo info = clientInfo.get(playerId);
-        
-        if (info == null) {
-            return "No client info available";
+    public Map<String, Integer> getDetectionStats() {
+        // 计数在加载器变化时增量维护，这里只读取每个加载器的计数
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        for (ModLoader loader : ModLoader.values()) {
+            int count = loaderCounts[loader.ordinal()].intValue();
+            if (count > 0) {
+                stats.put(loader.name(), count);
+            }
         }
-        
-        StringBuilder details = new StringBuilder();
-        details.append("Brand: ").append(info.brand).append("\n");
-        details.append("Forge Handshake: ").append(info.forgeHandshake).append("\n");
-        details.append("Fabric Handshake: ").append(info.fabricHandshake).append("\n");
-        details.append("Quilt Handshake: ").append(info.quiltHandshake).append("\n");
-        details.append("NeoForge Handshake: ").append(info.neoforgeHandshake).append("\n");
-        details.append("Plugin Message Count: ").append(info.pluginMessageCount).append("\n");
-        details.append("Has Custom Payload: ").append(info.hasCustomPayload).append("\n");
-        details.append("Detected Loader: ").append(info.detectedLoader).append("\n");
-        details.append("Detection Complete: ").append(
-            detectionComplete.getOrDefault(playerId, new AtomicBoolean(false)).get());
-        
-        return details.toString();
+        return stats;
     }
     
     /**
-     * 获取当前检测统计信息
+     * 各协议版本下的加载器分布，用于 bStats 的 DrilldownPie
      */
-    public Map<String, Integer> getDetectionStats() {
-        Map<String, Integer> stats = new java.util.HashMap<>();
-        for (String loader : playerLoaders.values()) {
-            stats.put(loader, stats.getOrDefault(loader, 0) + 1);
+    public Map<String, Map<String, Integer>> getVersionLoaderStats() {
+        Map<String, Map<String, Integer>> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder[]> version : versionLoaderCounts.entrySet()) {
+            Map<String, Integer> loaders = new LinkedHashMap<>();
+            for (ModLoader loader : ModLoader.values()) {
+                int count = version.getValue()[loader.ordinal()].intValue();
+                if (count > 0) {
+                    loaders.put(loader.name(), count);
+                }
+            }
+            if (!loaders.isEmpty()) {
+                stats.put(version.getKey(), loaders);
+            }
         }
         return stats;
     }
@@ -0,0 +1,111 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PendingConnections - 记录已经选定目标、但还没有真正连上的玩家
+ * 这些玩家不会出现在 getPlayersConnected() 中，负载均衡需要把它们也算进去，
+ * 否则登录高峰时所有玩家都会选中同一个"最空"的大厅。
+ * 连接成功、失败、断开或超时后预留会被释放。
+ */
+public class PendingConnections {
+
+    private final ProxyServer server;
+    private final Logger logger;
+    private final long timeoutMillis;
+    private final Map<String, AtomicInteger> pendingByServer = new ConcurrentHashMap<>();
+    private final Map<UUID, Reservation> reservations = new ConcurrentHashMap<>();
+    private ScheduledTask expiryTask;
+
+    private static final class Reservation {
+        final String serverName;
+        final long createdAt;
+
+        Reservation(String serverName, long createdAt) {
+            this.serverName = serverName;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public PendingConnections(ProxyServer server, Logger logger, long timeoutMillis) {
+        this.server = server;
+        this.logger = logger;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 启动超时清理任务
+     */
+    public void start(Object plugin) {
+        expiryTask = server.getScheduler().buildTask(plugin, this::expire)
+            .repeat(1, TimeUnit.SECONDS)
+            .schedule();
+    }
+
+    public void stop() {
+        if (expiryTask != null) {
+            expiryTask.cancel();
+            expiryTask = null;
+        }
+    }
+
+    /**
+     * 为玩家预留目标服务器，会替换该玩家之前的预留
+     */
+    public void reserve(UUID playerId, RegisteredServer target) {
+        String serverName = target.getServerInfo().getName();
+        pendingByServer.computeIfAbsent(serverName, k -> new AtomicInteger()).incrementAndGet();
+        Reservation previous = reservations.put(playerId, new Reservation(serverName, System.currentTimeMillis()));
+        if (previous != null) {
+            decrement(previous.serverName);
+        }
+    }
+
+    /**
+     * 释放玩家的预留（连接成功、失败或断开时调用），没有预留时什么也不做
+     */
+    public void release(UUID playerId) {
+        Reservation reservation = reservations.remove(playerId);
+        if (reservation != null) {
+            decrement(reservation.serverName);
+        }
+    }
+
+    /**
+     * 正在连接该服务器的玩家数
+     */
+    public int getPending(RegisteredServer target) {
+        AtomicInteger pending = pendingByServer.get(target.getServerInfo().getName());
+        return pending != null ? pending.get() : 0;
+    }
+
+    private void expire() {
+        long deadline = System.currentTimeMillis() - timeoutMillis;
+        int expired = 0;
+        for (Map.Entry<UUID, Reservation> entry : reservations.entrySet()) {
+            if (entry.getValue().createdAt < deadline && reservations.remove(entry.getKey(), entry.getValue())) {
+                decrement(entry.getValue().serverName);
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            logger.debug("Expired {} pending lobby reservation(s)", expired);
+        }
+    }
+
+    private void decrement(String serverName) {
+        AtomicInteger pending = pendingByServer.get(serverName);
+        if (pending != null) {
+            pending.updateAndGet(value -> value > 0 ? value - 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+/**
+ * PlayerSession - 玩家从登录到断开期间的状态
+ * 记录登录时间、路由到服务器的次数（初始服务器和被踢出后的重定向）以及最近所在的大厅，
+ * 断开时最近的大厅写入 LobbyAffinity。
+ */
+public class PlayerSession {
+
+    private final long joinedAt = System.currentTimeMillis();
+    private volatile int connectionAttempts;
+    private volatile String lastLobby;
+
+    public long getJoinedAt() {
+        return joinedAt;
+    }
+
+    public int getConnectionAttempts() {
+        return connectionAttempts;
+    }
+
+    /**
+     * 同一玩家的登录和踢出事件不会并发，这里无需原子操作
+     */
+    public void recordConnectionAttempt() {
+        connectionAttempts++;
+    }
+
+    /**
+     * 最近连上的大厅名，还没有连上过大厅时为 null
+     */
+    public String getLastLobby() {
+        return lastLobby;
+    }
+
+    public void setLastLobby(String lastLobby) {
+        this.lastLobby = lastLobby;
+    }
+}
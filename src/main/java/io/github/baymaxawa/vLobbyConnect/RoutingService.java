@@ -0,0 +1,233 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * RoutingService - 登录、/hub、/lobby 和被踢出重定向共用的路由服务
+ * 持有编译好的路由表、健康缓存、负载均衡策略和模组加载器检测结果，
+ * 配置只在启动时解析一次，所有入口看到的是同一份路由数据。
+ */
+public class RoutingService {
+
+    private final ModLoaderDetector modLoaderDetector;
+    private final ServerHealthMonitor healthMonitor;
+    private final PendingConnections pendingConnections;
+    private final LoadBalancer loadBalancer;
+    private final LobbyAffinity lobbyAffinity; // 未启用时为 null
+
+    // 路由表整体替换，读取方无需加锁
+    private volatile RoutingTable routingTable = RoutingTable.EMPTY;
+
+    public RoutingService(ModLoaderDetector modLoaderDetector, ServerHealthMonitor healthMonitor,
+                          PendingConnections pendingConnections, LoadBalancer loadBalancer, LobbyAffinity lobbyAffinity) {
+        this.modLoaderDetector = modLoaderDetector;
+        this.healthMonitor = healthMonitor;
+        this.pendingConnections = pendingConnections;
+        this.loadBalancer = loadBalancer;
+        this.lobbyAffinity = lobbyAffinity;
+    }
+
+    /**
+     * 当前路由表快照，一次路由决策应始终使用同一份快照
+     */
+    public RoutingTable getTable() {
+        return routingTable;
+    }
+
+    /**
+     * 原子替换路由表，并让健康检查跟踪新表中的服务器
+     */
+    public void updateTable(RoutingTable table) {
+        routingTable = table;
+        healthMonitor.track(table.getAllServers());
+    }
+
+    /**
+     * 玩家当前检测到的模组加载器，复用登录阶段已经完成的检测结果
+     */
+    public ModLoader getLoader(Player player) {
+        return ModLoader.fromNameOrVanilla(modLoaderDetector.getModLoader(player));
+    }
+
+    /**
+     * 判断服务器是否是配置中的大厅服务器
+     */
+    public boolean isLobby(RegisteredServer server) {
+        return routingTable.contains(server);
+    }
+
+    /**
+     * 依次尝试预先编译好的回退层级，由负载均衡策略在第一个有在线且未满服务器的层级中选择
+     * 只读取健康缓存，不会等待 ping，可以在登录和被踢出的事件线程上直接调用
+     */
+    public RegisteredServer selectServer(RoutingTable table, RoutingTable.Route route) {
+        LoadBalancer.LoadView view = new LobbyLoadView(table);
+        for (List<RegisteredServer> tier : route.getTiers()) {
+            RegisteredServer target = selectServer(tier, view);
+            if (target != null) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 优先回到玩家上次所在的大厅：该大厅仍在路由的第一个层级中、在线且负载低于阈值时直接返回，
+     * 否则交给负载均衡策略按回退层级选择
+     */
+    public RegisteredServer selectServer(RoutingTable table, RoutingTable.Route route, UUID playerId) {
+        RegisteredServer previous = selectPreviousLobby(table, route, playerId);
+        return previous != null ? previous : selectServer(table, route);
+    }
+
+    private RegisteredServer selectPreviousLobby(RoutingTable table, RoutingTable.Route route, UUID playerId) {
+        if (lobbyAffinity == null || route.isEmpty()) {
+            return null;
+        }
+        String lobby = lobbyAffinity.getLobby(playerId);
+        if (lobby == null) {
+            return null;
+        }
+        // 只在最匹配的层级中查找，不会为了回到旧大厅而降级到兼容性更差的服务器
+        for (RegisteredServer candidate : route.getTiers().get(0)) {
+            if (!candidate.getServerInfo().getName().equals(lobby)) {
+                continue;
+            }
+            if (healthMonitor.getAvailable(List.of(candidate)).isEmpty()) {
+                return null;
+            }
+            LoadBalancer.LoadView view = new LobbyLoadView(table);
+            int capacity = view.getCapacity(candidate);
+            if (capacity > 0 && view.getLoad(candidate) >= capacity * lobbyAffinity.getMaxLoadRatio()) {
+                return null;
+            }
+            return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * 先并行探测路由中还没有健康记录的服务器，再按回退层级选择，不阻塞调用线程
+     * 冷启动或重新加载后，登录和 /hub、/lobby 不会被路由到从未确认过在线的服务器
+     */
+    public CompletableFuture<RegisteredServer> selectServerAsync(RoutingTable table, RoutingTable.Route route, UUID playerId) {
+        List<RegisteredServer> candidates = new ArrayList<>();
+        route.getTiers().forEach(candidates::addAll);
+        return healthMonitor.probeAvailable(candidates)
+            .thenApply(ignored -> playerId != null ? selectServer(table, route, playerId) : selectServer(table, route));
+    }
+
+    /**
+     * 只在给定的一组服务器中选择
+     */
+    public RegisteredServer selectServer(RoutingTable table, List<RegisteredServer> servers) {
+        return selectServer(servers, new LobbyLoadView(table));
+    }
+
+    private RegisteredServer selectServer(List<RegisteredServer> servers, LoadBalancer.LoadView view) {
+        // 只保留在线的服务器；没有缓存记录的服务器仅在没有确认在线的服务器时使用
+        List<RegisteredServer> onlineServers = healthMonitor.getAvailable(servers);
+
+        // 在客户端尝试连接并被踢出之前跳过已满的大厅
+        List<RegisteredServer> openServers = new ArrayList<>(onlineServers.size());
+        for (RegisteredServer candidate : onlineServers) {
+            int capacity = view.getCapacity(candidate);
+            if (capacity <= 0 || view.getLoad(candidate) < capacity) {
+                openServers.add(candidate);
+            }
+        }
+
+        if (openServers.isEmpty()) {
+            return null;
+        }
+
+        return loadBalancer.select(openServers, view);
+    }
+
+    /**
+     * 为玩家选择大厅并立即预留位置，同一轮放行的玩家不会抢同一个空位
+     */
+    public RegisteredServer reserveTarget(Player player) {
+        RoutingTable table = routingTable;
+        RegisteredServer target = selectServer(table, table.route(player.getProtocolVersion(), getLoader(player)),
+            player.getUniqueId());
+        if (target != null) {
+            reserve(player.getUniqueId(), target);
+        }
+        return target;
+    }
+
+    /**
+     * 记录玩家正在连接目标服务器
+     */
+    public void reserve(UUID playerId, RegisteredServer target) {
+        pendingConnections.reserve(playerId, target);
+    }
+
+    /**
+     * 连接完成、失败或断开时释放预留
+     */
+    public void release(UUID playerId) {
+        pendingConnections.release(playerId);
+    }
+
+    /**
+     * 负载信息视图：已连接加正在连接的玩家、权重、延迟和容量
+     */
+    public LoadBalancer.LoadView getLoadView(RoutingTable table) {
+        return new LobbyLoadView(table);
+    }
+
+    public ServerHealthMonitor getHealthMonitor() {
+        return healthMonitor;
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * 提供给负载均衡策略的负载信息：已连接加正在连接的玩家、配置的权重和缓存的 ping 延迟
+     */
+    private final class LobbyLoadView implements LoadBalancer.LoadView {
+        private final RoutingTable table;
+
+        LobbyLoadView(RoutingTable table) {
+            this.table = table;
+        }
+
+        @Override
+        public int getLoad(RegisteredServer server) {
+            // ping 得到的人数还包括其他代理上的玩家；已选定但尚未连上的玩家也计入负载
+            int connected = server.getPlayersConnected().size();
+            ServerHealthMonitor.ServerHealth health = healthMonitor.getHealth(server);
+            if (health != null && health.isOnline()) {
+                connected = Math.max(connected, health.getPlayerCount());
+            }
+            return connected + pendingConnections.getPending(server);
+        }
+
+        @Override
+        public int getWeight(RegisteredServer server) {
+            return table.getWeight(server);
+        }
+
+        @Override
+        public long getLatencyMillis(RegisteredServer server) {
+            ServerHealthMonitor.ServerHealth health = healthMonitor.getHealth(server);
+            return health != null && health.isOnline() ? health.getLatencyMillis() : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int getCapacity(RegisteredServer server) {
+            ServerHealthMonitor.ServerHealth health = healthMonitor.getHealth(server);
+            return health != null && health.isOnline() ? health.getMaxPlayers() : 0;
+        }
+    }
+}
@@ -0,0 +1,691 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * RoutingTable - 由配置编译出的不可变路由表
+ * 以 (协议号, 模组加载器) 为键，回退链在编译时就已经解析好，
+ * 查询时只做数组下标访问，不加锁也不分配对象。
+ * 重新加载配置时构建一张新表，再通过 volatile 引用整体替换。
+ *
+ * 配置中的版本在编译时解析为协议号区间，匹配只比较整数：
+ *   1.20.1         该版本对应的协议号
+ *   1.20           整个 1.20.x 系列
+ *   1.20-1.20.6    闭区间
+ *   >=1.19 / <=1.12.2  开放区间
+ *
+ * 每个 (协议号, 加载器) 的回退链按 fallback.chain 配置的步骤依次展开，
+ * 默认为：精确匹配 -> 同加载器的最近低版本 -> 同加载器的 VIA 服务器 -> 兜底服务器。
+ *
+ * 服务器名可以是通配符模式（如 "lobby-*"），按 Velocity 当前注册的服务器展开；
+ * 服务器注册或注销时用 rebuild 以同一份配置重新编译。
+ */
+public final class RoutingTable {
+
+    // 正则表达式分组解释：
+    // group(1): 完整的VIA前缀（如果有），如"VIA-"
+    // group(2): 仅"VIA"（如果有）
+    // group(3): 版本范围加横杠（如果有），如"1.20-"、"1.20-1.20.6-"、">=1.19-"
+    // group(4): 模组加载器，如"VANILLA"
+    // group(5): 末尾编号（如果有），如"1"
+    private static final Pattern KEY_PATTERN = Pattern.compile(
+        "^((VIA)-)?((?:>=|<=)?\\d+(?:\\.\\d+)*(?:-\\d+(?:\\.\\d+)*)?-)?([A-Z]+)(?:-(\\d+))?$");
+
+    /**
+     * 回退链中的一步，每一步在编译时展开为一个候选层级，没有服务器的步骤被跳过
+     */
+    public enum FallbackStep {
+        // 版本区间包含玩家协议号且加载器相同
+        EXACT("exact"),
+        // 同加载器中版本区间完全低于玩家协议号、且最接近的分组
+        LOWER_VERSION("lower-version"),
+        // 同加载器的 VIA 分组；该加载器没有 VIA 分组时使用所有 VIA 分组（与旧版行为一致）
+        VIA("via"),
+        // 版本区间包含玩家协议号的其他加载器分组
+        SAME_VERSION("same-version"),
+        // fallback.last-resort 中配置的服务器
+        LAST_RESORT("last-resort");
+
+        private final String configName;
+
+        FallbackStep(String configName) {
+            this.configName = configName;
+        }
+
+        public String getConfigName() {
+            return configName;
+        }
+
+        public static FallbackStep fromConfigName(String name) {
+            for (FallbackStep step : values()) {
+                if (step.configName.equalsIgnoreCase(name)) {
+                    return step;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final List<FallbackStep> DEFAULT_CHAIN = List.of(
+        FallbackStep.EXACT, FallbackStep.LOWER_VERSION, FallbackStep.VIA, FallbackStep.LAST_RESORT);
+
+    public static final RoutingTable EMPTY = new RoutingTable(
+        Collections.emptyMap(), Collections.emptyList(), Collections.emptyMap(), new Route[0][], emptyRoutes(null),
+        new Source(Collections.emptyMap(), null, Set.of(), List.of()));
+
+    private final Map<String, List<RegisteredServer>> groups;
+    private final Map<String, Integer> weights;
+    private final List<RegisteredServer> allServers;
+    private final Set<String> serverNames;
+    private final Route[][] routesByProtocol;
+    private final Route[] unknownVersionRoutes;
+    private final Source source;
+
+    /**
+     * 某个 (版本, 加载器) 组合预先解析好的候选服务器层级，按优先级排列
+     */
+    public static final class Route {
+        private final String version;
+        private final ModLoader loader;
+        private final List<List<RegisteredServer>> tiers;
+
+        Route(String version, ModLoader loader, List<List<RegisteredServer>> tiers) {
+            this.version = version;
+            this.loader = loader;
+            this.tiers = tiers;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public ModLoader getLoader() {
+            return loader;
+        }
+
+        /**
+         * 候选层级，按回退链的顺序排列；同一服务器只出现在它第一次出现的层级中
+         */
+        public List<List<RegisteredServer>> getTiers() {
+            return tiers;
+        }
+
+        public boolean isEmpty() {
+            return tiers.isEmpty();
+        }
+    }
+
+    /**
+     * 编译路由表所用的配置，以及其中引用的服务器名和名称模式
+     */
+    private static final class Source {
+        final Map<String, Object> servers;
+        final Map<String, Object> fallbackConfig;
+        final Set<String> names;
+        final List<Pattern> patterns;
+
+        Source(Map<String, Object> servers, Map<String, Object> fallbackConfig, Set<String> names, List<Pattern> patterns) {
+            this.servers = servers;
+            this.fallbackConfig = fallbackConfig;
+            this.names = names;
+            this.patterns = patterns;
+        }
+    }
+
+    private static final class Group {
+        final String key;
+        final boolean via;
+        // 协议号闭区间，VIA 组不使用
+        final int minProtocol;
+        final int maxProtocol;
+        final ModLoader loader;
+        final List<RegisteredServer> servers = new ArrayList<>();
+
+        Group(String key, boolean via, int minProtocol, int maxProtocol, ModLoader loader) {
+            this.key = key;
+            this.via = via;
+            this.minProtocol = minProtocol;
+            this.maxProtocol = maxProtocol;
+            this.loader = loader;
+        }
+
+        boolean covers(int protocol) {
+            return !via && protocol >= minProtocol && protocol <= maxProtocol;
+        }
+    }
+
+    private RoutingTable(Map<String, List<RegisteredServer>> groups, List<RegisteredServer> allServers,
+                         Map<String, Integer> weights, Route[][] routesByProtocol, Route[] unknownVersionRoutes,
+                         Source source) {
+        this.groups = groups;
+        this.allServers = allServers;
+        Set<String> names = new HashSet<>();
+        for (RegisteredServer server : allServers) {
+            names.add(server.getServerInfo().getName());
+        }
+        this.serverNames = Set.copyOf(names);
+        this.weights = weights;
+        this.routesByProtocol = routesByProtocol;
+        this.unknownVersionRoutes = unknownVersionRoutes;
+        this.source = source;
+    }
+
+    /**
+     * 查询玩家的候选路由，无锁、无分配
+     */
+    public Route route(ProtocolVersion protocolVersion, ModLoader loader) {
+        int protocol = protocolVersion.getProtocol();
+        if (protocol >= 0 && protocol < routesByProtocol.length) {
+            Route[] byLoader = routesByProtocol[protocol];
+            if (byLoader != null) {
+                return byLoader[loader.ordinal()];
+            }
+        }
+        return unknownVersionRoutes[loader.ordinal()];
+    }
+
+    /**
+     * 所有分组，键为 "版本-加载器" 或 "VIA-加载器"
+     */
+    public Map<String, List<RegisteredServer>> getGroups() {
+        return groups;
+    }
+
+    public List<RegisteredServer> getAllServers() {
+        return allServers;
+    }
+
+    public boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    /**
+     * 服务器是否出现在路由表中（大厅或兜底服务器），按名称哈希查找
+     */
+    public boolean contains(RegisteredServer server) {
+        return serverNames.contains(server.getServerInfo().getName());
+    }
+
+    /**
+     * 配置是否引用了该服务器名（直接写出或匹配某个名称模式），
+     * 为 false 时该服务器的注册和注销不会改变路由
+     */
+    public boolean references(String serverName) {
+        if (source.names.contains(serverName)) {
+            return true;
+        }
+        for (Pattern pattern : source.patterns) {
+            if (pattern.matcher(serverName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 用同一份配置按 Velocity 当前注册的服务器重新编译，不重复输出配置日志
+     */
+    public RoutingTable rebuild(ProxyServer proxy) {
+        return compile(source.servers, source.fallbackConfig, proxy, NOPLogger.NOP_LOGGER);
+    }
+
+    /**
+     * 服务器在负载均衡中的权重，未配置时为 1
+     */
+    public int getWeight(RegisteredServer server) {
+        Integer weight = weights.get(server.getServerInfo().getName());
+        return weight != null ? weight : 1;
+    }
+
+    /**
+     * 解析配置值中的服务器名，支持 "lobby" 和 {server: lobby, weight: 3} 两种写法
+     */
+    public static String serverNameOf(Object value) {
+        if (value instanceof Map) {
+            Object name = ((Map<?, ?>) value).get("server");
+            return name != null ? name.toString() : null;
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    private static int weightOf(Object value) {
+        if (value instanceof Map) {
+            Object weight = ((Map<?, ?>) value).get("weight");
+            if (weight instanceof Number) {
+                return Math.max(1, ((Number) weight).intValue());
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * 解析配置中的 servers 段和 fallback 段并编译为路由表
+     * @param fallbackConfig fallback 段，可为 null
+     */
+    public static RoutingTable compile(Map<String, Object> servers, Map<String, Object> fallbackConfig,
+                                       ProxyServer proxy, Logger logger) {
+        Map<String, Group> groupsByKey = new TreeMap<>();
+        Map<String, Integer> weights = new HashMap<>();
+        Map<String, int[]> protocolsByName = protocolsByVersionName();
+        Set<String> referencedNames = new HashSet<>();
+        List<Pattern> namePatterns = new ArrayList<>();
+
+        for (Map.Entry<String, Object> entry : servers.entrySet()) {
+            String configKey = entry.getKey();
+            Matcher matcher = KEY_PATTERN.matcher(configKey);
+
+            if (!matcher.matches()) {
+                logger.warn("Invalid server configuration key format: {}", configKey);
+                logger.warn("Expected format: VERSION-LOADER-NUMBER or VIA-LOADER-NUMBER");
+                logger.warn("Examples: 1.20-VANILLA-1, 1.20.1-FORGE, VIA-VANILLA-2, 1.20-1.20.6-FABRIC, >=1.19-VANILLA");
+                continue;
+            }
+
+            String via = matcher.group(2);
+            String versionWithDash = matcher.group(3);
+            String loaderName = matcher.group(4);
+            String number = matcher.group(5);
+
+            // 清理版本号：去掉末尾的横杠
+            String version = (versionWithDash != null && versionWithDash.endsWith("-"))
+                    ? versionWithDash.substring(0, versionWithDash.length() - 1)
+                    : null;
+
+            // 如果有VIA前缀，但版本号存在，这是无效组合
+            if (via != null && version != null) {
+                logger.warn("Invalid combination: VIA prefix with version number in key: {}", configKey);
+                continue;
+            }
+            if (via == null && version == null) {
+                logger.warn("Missing version or VIA prefix in key: {}", configKey);
+                continue;
+            }
+
+            ModLoader loader = ModLoader.fromName(loaderName);
+            if (loader == null) {
+                logger.warn("Unknown mod loader '{}' in key: {}", loaderName, configKey);
+                continue;
+            }
+
+            int[] range = via != null ? null : parseRange(version, protocolsByName);
+            if (via == null && range == null) {
+                logger.warn("Unknown Minecraft version or empty range '{}' in key: {}", version, configKey);
+                continue;
+            }
+
+            String serverName = serverNameOf(entry.getValue());
+            if (serverName == null) {
+                logger.warn("Missing server name for key: {}", configKey);
+                continue;
+            }
+            List<RegisteredServer> resolved = new ArrayList<>();
+            if (isNamePattern(serverName)) {
+                // 名称模式按当前注册的服务器展开，按名称排序使结果与注册顺序无关
+                Pattern pattern = namePattern(serverName);
+                namePatterns.add(pattern);
+                for (RegisteredServer candidate : proxy.getAllServers()) {
+                    if (pattern.matcher(candidate.getServerInfo().getName()).matches()) {
+                        resolved.add(candidate);
+                    }
+                }
+                resolved.sort(Comparator.comparing(candidate -> candidate.getServerInfo().getName()));
+                if (resolved.isEmpty()) {
+                    logger.info("Pattern '{}' for key {} matches no registered servers yet", serverName, configKey);
+                    continue;
+                }
+            } else {
+                referencedNames.add(serverName);
+                Optional<RegisteredServer> serverOpt = proxy.getServer(serverName);
+                if (serverOpt.isEmpty()) {
+                    logger.warn("Server '{}' not found in Velocity configuration for key: {}", serverName, configKey);
+                    continue;
+                }
+                resolved.add(serverOpt.get());
+            }
+
+            String groupKey = (via != null ? "VIA" : version) + "-" + loader.name();
+            Group group = groupsByKey.computeIfAbsent(groupKey, k -> via != null
+                ? new Group(k, true, 0, -1, loader)
+                : new Group(k, false, range[0], range[1], loader));
+            int weight = weightOf(entry.getValue());
+            for (RegisteredServer registeredServer : resolved) {
+                addUnique(group.servers, registeredServer);
+                weights.merge(registeredServer.getServerInfo().getName(), weight, Math::max);
+
+                // 构建详细的日志信息
+                StringBuilder logBuilder = new StringBuilder();
+                logBuilder.append("Config servers, ");
+                if (via != null) {
+                    logBuilder.append("[VIA] ");
+                } else {
+                    logBuilder.append("[VERSION] ").append(version)
+                            .append(" (protocol ").append(range[0]).append('-')
+                            .append(range[1] == Integer.MAX_VALUE ? "latest" : String.valueOf(range[1])).append(") ");
+                }
+                logBuilder.append("[LOADER] ").append(loader);
+                if (number != null) {
+                    logBuilder.append(" [NUMBER] ").append(number);
+                }
+                logBuilder.append(" Server: ").append(registeredServer.getServerInfo().getName())
+                        .append(" IP: ").append(registeredServer.getServerInfo().getAddress());
+                if (weight != 1) {
+                    logBuilder.append(" Weight: ").append(weight);
+                }
+                logger.info(logBuilder.toString());
+            }
+        }
+
+        List<Group> groupList = new ArrayList<>(groupsByKey.values());
+        List<RegisteredServer> allServers = new ArrayList<>();
+        Map<String, List<RegisteredServer>> groupView = new LinkedHashMap<>();
+        for (Group group : groupList) {
+            groupView.put(group.key, List.copyOf(group.servers));
+            for (RegisteredServer registeredServer : group.servers) {
+                addUnique(allServers, registeredServer);
+            }
+        }
+        List<RegisteredServer> allView = List.copyOf(allServers);
+
+        List<FallbackStep> chain = parseChain(fallbackConfig, logger);
+        List<RegisteredServer> lastResort = parseLastResort(fallbackConfig, proxy, logger, referencedNames);
+
+        // 为每个已知协议号预先解析路由
+        int maxProtocol = -1;
+        for (ProtocolVersion protocolVersion : ProtocolVersion.values()) {
+            maxProtocol = Math.max(maxProtocol, protocolVersion.getProtocol());
+        }
+        Route[][] routesByProtocol = new Route[maxProtocol + 1][];
+        for (ProtocolVersion protocolVersion : ProtocolVersion.values()) {
+            int protocol = protocolVersion.getProtocol();
+            if (protocol < 0) {
+                continue;
+            }
+            routesByProtocol[protocol] = resolveRoutes(protocol, protocolVersion.getName(), groupList, chain, lastResort);
+        }
+
+        if (!groupList.isEmpty()) {
+            warnEmptyRoutes(routesByProtocol, logger);
+        }
+
+        // 兜底服务器也需要健康检查和大厅判断
+        List<RegisteredServer> trackedServers = new ArrayList<>(allView);
+        lastResort.forEach(s -> addUnique(trackedServers, s));
+
+        return new RoutingTable(Collections.unmodifiableMap(groupView), List.copyOf(trackedServers), Map.copyOf(weights),
+            routesByProtocol, resolveRoutes(-1, null, groupList, chain, lastResort),
+            new Source(servers, fallbackConfig, Set.copyOf(referencedNames), List.copyOf(namePatterns)));
+    }
+
+    /**
+     * @param protocol 玩家协议号，未知版本为 -1，此时只有 VIA 和兜底步骤可用
+     */
+    private static Route[] resolveRoutes(int protocol, String version, List<Group> groups,
+                                         List<FallbackStep> chain, List<RegisteredServer> lastResort) {
+        Route[] routes = new Route[ModLoader.count()];
+        for (ModLoader loader : ModLoader.values()) {
+            List<List<RegisteredServer>> tiers = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            for (FallbackStep step : chain) {
+                List<RegisteredServer> tier = new ArrayList<>();
+                switch (step) {
+                    case EXACT:
+                        for (Group group : groups) {
+                            if (group.covers(protocol) && group.loader == loader) {
+                                group.servers.forEach(tier::add);
+                            }
+                        }
+                        break;
+                    case LOWER_VERSION:
+                        // 取版本区间上界最大的那些分组，结果与配置顺序无关
+                        int nearest = -1;
+                        for (Group group : groups) {
+                            if (!group.via && group.loader == loader && group.maxProtocol < protocol) {
+                                nearest = Math.max(nearest, group.maxProtocol);
+                            }
+                        }
+                        for (Group group : groups) {
+                            if (nearest >= 0 && !group.via && group.loader == loader && group.maxProtocol == nearest) {
+                                group.servers.forEach(tier::add);
+                            }
+                        }
+                        break;
+                    case VIA:
+                        boolean ownVia = false;
+                        for (Group group : groups) {
+                            if (group.via && group.loader == loader) {
+                                ownVia = true;
+                                group.servers.forEach(tier::add);
+                            }
+                        }
+                        // 例如默认配置中没有任何 NEOFORGE 分组，这些玩家仍然进入 VIA 大厅
+                        if (!ownVia) {
+                            for (Group group : groups) {
+                                if (group.via) {
+                                    group.servers.forEach(tier::add);
+                                }
+                            }
+                        }
+                        break;
+                    case SAME_VERSION:
+                        for (Group group : groups) {
+                            if (group.covers(protocol) && group.loader != loader) {
+                                group.servers.forEach(tier::add);
+                            }
+                        }
+                        break;
+                    case LAST_RESORT:
+                        tier.addAll(lastResort);
+                        break;
+                }
+                // 已经出现在前面层级中的服务器不再重复检查
+                tier.removeIf(candidate -> !seen.add(candidate.getServerInfo().getName()));
+                if (!tier.isEmpty()) {
+                    tiers.add(List.copyOf(tier));
+                }
+            }
+            routes[loader.ordinal()] = new Route(version, loader, List.copyOf(tiers));
+        }
+        return routes;
+    }
+
+    /**
+     * 每个加载器输出一行警告，列出解析后没有任何服务器的版本，相邻的版本合并为区间
+     */
+    private static void warnEmptyRoutes(Route[][] routesByProtocol, Logger logger) {
+        for (ModLoader loader : ModLoader.values()) {
+            StringBuilder versions = new StringBuilder();
+            ProtocolVersion runStart = null;
+            ProtocolVersion runEnd = null;
+            for (ProtocolVersion protocolVersion : ProtocolVersion.values()) {
+                int protocol = protocolVersion.getProtocol();
+                if (protocol < 0) {
+                    continue;
+                }
+                if (routesByProtocol[protocol][loader.ordinal()].isEmpty()) {
+                    if (runStart == null) {
+                        runStart = protocolVersion;
+                    }
+                    runEnd = protocolVersion;
+                } else if (runStart != null) {
+                    appendRun(versions, runStart, runEnd);
+                    runStart = null;
+                }
+            }
+            if (runStart != null) {
+                appendRun(versions, runStart, runEnd);
+            }
+            if (versions.length() > 0) {
+                logger.warn("No servers for {} players on {}; add a group, a VIA group or a fallback.last-resort server",
+                    loader, versions);
+            }
+        }
+    }
+
+    private static void appendRun(StringBuilder versions, ProtocolVersion start, ProtocolVersion end) {
+        if (versions.length() > 0) {
+            versions.append(", ");
+        }
+        versions.append(start.getVersionIntroducedIn());
+        if (start != end || !start.getVersionIntroducedIn().equals(end.getMostRecentSupportedVersion())) {
+            versions.append('-').append(end.getMostRecentSupportedVersion());
+        }
+    }
+
+    private static List<FallbackStep> parseChain(Map<String, Object> fallbackConfig, Logger logger) {
+        Object configured = fallbackConfig != null ? fallbackConfig.get("chain") : null;
+        if (!(configured instanceof List)) {
+            return DEFAULT_CHAIN;
+        }
+        List<FallbackStep> chain = new ArrayList<>();
+        for (Object name : (List<?>) configured) {
+            FallbackStep step = name != null ? FallbackStep.fromConfigName(name.toString()) : null;
+            if (step == null) {
+                logger.warn("Unknown fallback step '{}', expected one of exact, lower-version, via, same-version, last-resort", name);
+            } else if (!chain.contains(step)) {
+                chain.add(step);
+            }
+        }
+        if (chain.isEmpty()) {
+            logger.warn("No valid fallback steps configured, using the default chain");
+            return DEFAULT_CHAIN;
+        }
+        return List.copyOf(chain);
+    }
+
+    private static List<RegisteredServer> parseLastResort(Map<String, Object> fallbackConfig, ProxyServer proxy, Logger logger,
+                                                          Set<String> referencedNames) {
+        Object configured = fallbackConfig != null ? fallbackConfig.get("last-resort") : null;
+        List<RegisteredServer> servers = new ArrayList<>();
+        if (configured instanceof List) {
+            for (Object value : (List<?>) configured) {
+                String serverName = serverNameOf(value);
+                if (serverName != null) {
+                    referencedNames.add(serverName);
+                }
+                Optional<RegisteredServer> serverOpt = serverName != null ? proxy.getServer(serverName) : Optional.empty();
+                if (serverOpt.isEmpty()) {
+                    logger.warn("Last-resort server '{}' not found in Velocity configuration", serverName);
+                    continue;
+                }
+                addUnique(servers, serverOpt.get());
+            }
+        }
+        return List.copyOf(servers);
+    }
+
+    private static Route[] emptyRoutes(String version) {
+        Route[] routes = new Route[ModLoader.count()];
+        for (ModLoader loader : ModLoader.values()) {
+            routes[loader.ordinal()] = new Route(version, loader, List.of());
+        }
+        return routes;
+    }
+
+    private static void addUnique(List<RegisteredServer> servers, RegisteredServer candidate) {
+        String name = candidate.getServerInfo().getName();
+        for (RegisteredServer existing : servers) {
+            if (existing.getServerInfo().getName().equals(name)) {
+                return;
+            }
+        }
+        servers.add(candidate);
+    }
+
+    private static boolean isNamePattern(String serverName) {
+        return serverName.indexOf('*') >= 0 || serverName.indexOf('?') >= 0;
+    }
+
+    /**
+     * 通配符模式：* 匹配任意多个字符，? 匹配单个字符，其余字符按字面匹配
+     */
+    private static Pattern namePattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * 版本名称 -> {最小协议号, 最大协议号}
+     * 两段的版本名（如 "1.20"）同时登记为整个系列，覆盖 1.20 到 1.20.x
+     */
+    private static Map<String, int[]> protocolsByVersionName() {
+        Map<String, int[]> protocols = new HashMap<>();
+        for (ProtocolVersion protocolVersion : ProtocolVersion.values()) {
+            int protocol = protocolVersion.getProtocol();
+            if (protocol < 0) {
+                continue;
+            }
+            for (String name : protocolVersion.getVersionsSupportedBy()) {
+                widen(protocols, name, protocol);
+                String[] parts = name.split("\\.");
+                if (parts.length > 2) {
+                    widen(protocols, parts[0] + "." + parts[1], protocol);
+                }
+            }
+        }
+        return protocols;
+    }
+
+    private static void widen(Map<String, int[]> protocols, String name, int protocol) {
+        int[] range = protocols.computeIfAbsent(name, n -> new int[] {protocol, protocol});
+        range[0] = Math.min(range[0], protocol);
+        range[1] = Math.max(range[1], protocol);
+    }
+
+    /**
+     * 将配置中的版本范围解析为协议号闭区间，版本未知或区间为空时返回 null
+     */
+    private static int[] parseRange(String spec, Map<String, int[]> protocolsByName) {
+        if (spec.startsWith(">=")) {
+            int[] lower = protocolsByName.get(spec.substring(2));
+            return lower != null ? new int[] {lower[0], Integer.MAX_VALUE} : null;
+        }
+        if (spec.startsWith("<=")) {
+            int[] upper = protocolsByName.get(spec.substring(2));
+            return upper != null ? new int[] {0, upper[1]} : null;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            int[] range = protocolsByName.get(spec);
+            return range != null ? range.clone() : null;
+        }
+        int[] lower = protocolsByName.get(spec.substring(0, dash));
+        int[] upper = protocolsByName.get(spec.substring(dash + 1));
+        if (lower == null || upper == null || lower[0] > upper[1]) {
+            return null;
+        }
+        return new int[] {lower[0], upper[1]};
+    }
+}
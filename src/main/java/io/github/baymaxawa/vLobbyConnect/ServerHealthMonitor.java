@@ -0,0 +1,298 @@
+package io.github.baymaxawa.vLobbyConnect;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.proxy.server.ServerPing;
+import com.velocitypowered.api.scheduler.ScheduledTask;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ServerHealthMonitor - 在后台按固定周期 ping 所有大厅服务器，并缓存在线状态、延迟、玩家数和容量
+ * 路由代码只读取缓存结果，玩家相关的路径（登录、/hub、/lobby、被踢出）不再发起同步 ping
+ */
+public class ServerHealthMonitor {
+
+    // 冷启动探测时，收到这么多在线响应即可停止等待
+    private static final int PROBE_ENOUGH_HEALTHY = 2;
+
+    private final ProxyServer server;
+    private final Logger logger;
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMillis;
+    private final Map<String, ServerHealth> healthCache = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Boolean>> pingsInFlight = new ConcurrentHashMap<>();
+    private volatile Collection<RegisteredServer> trackedServers = List.of();
+    private volatile Set<String> trackedNames = Set.of();
+    private ScheduledTask pingTask;
+
+    /**
+     * 单个服务器的健康快照（不可变）
+     */
+    public static final class ServerHealth {
+        private final boolean online;
+        private final long latencyMillis;
+        private final int playerCount;
+        private final int maxPlayers;
+        private final long checkedAt;
+
+        ServerHealth(boolean online, long latencyMillis, int playerCount, int maxPlayers, long checkedAt) {
+            this.online = online;
+            this.latencyMillis = latencyMillis;
+            this.playerCount = playerCount;
+            this.maxPlayers = maxPlayers;
+            this.checkedAt = checkedAt;
+        }
+
+        public boolean isOnline() {
+            return online;
+        }
+
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        public int getPlayerCount() {
+            return playerCount;
+        }
+
+        /**
+         * 服务器报告的最大玩家数，未知时为 0
+         */
+        public int getMaxPlayers() {
+            return maxPlayers;
+        }
+
+        public long getCheckedAt() {
+            return checkedAt;
+        }
+    }
+
+    public ServerHealthMonitor(ProxyServer server, Logger logger, long intervalMillis, long timeoutMillis,
+                               int breakerFailureThreshold, long breakerOpenMillis) {
+        this.server = server;
+        this.logger = logger;
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.breakerFailureThreshold = breakerFailureThreshold;
+        this.breakerOpenMillis = breakerOpenMillis;
+    }
+
+    /**
+     * 设置需要监控的服务器集合（按服务器名去重）
+     */
+    public void track(Collection<RegisteredServer> servers) {
+        Map<String, RegisteredServer> unique = new LinkedHashMap<>();
+        for (RegisteredServer registeredServer : servers) {
+            unique.putIfAbsent(registeredServer.getServerInfo().getName(), registeredServer);
+        }
+        trackedServers = List.copyOf(unique.values());
+        // 先替换名字集合再清理，之后才返回的旧 ping 会在 record 中被丢弃
+        trackedNames = Set.copyOf(unique.keySet());
+        healthCache.keySet().retainAll(unique.keySet());
+        breakers.keySet().retainAll(unique.keySet());
+    }
+
+    /**
+     * 启动后台 ping 任务，立即执行一次，然后按配置的周期重复
+     */
+    public void start(Object plugin) {
+        stop();
+        pingTask = server.getScheduler().buildTask(plugin, this::refresh)
+            .repeat(intervalMillis, TimeUnit.MILLISECONDS)
+            .schedule();
+        logger.info("Started lobby health checks for {} server(s) every {} ms.", trackedServers.size(), intervalMillis);
+    }
+
+    /**
+     * 停止后台 ping 任务
+     */
+    public void stop() {
+        if (pingTask != null) {
+            pingTask.cancel();
+            pingTask = null;
+        }
+    }
+
+    /**
+     * 异步 ping 所有被监控的服务器，上一轮还未返回的服务器不会重复 ping
+     */
+    public void refresh() {
+        for (RegisteredServer registeredServer : trackedServers) {
+            pingAsync(registeredServer);
+        }
+    }
+
+    /**
+     * 异步 ping 单个服务器并写入缓存，返回的 future 以是否在线完成
+     * 同一服务器同时只有一个 ping 在进行，重复调用会复用已有的 future
+     * 熔断器处于 OPEN 状态时不会发起 ping，冷却结束后只放行一次探测；未被监控的服务器不会 ping
+     */
+    private CompletableFuture<Boolean> pingAsync(RegisteredServer registeredServer) {
+        String name = registeredServer.getServerInfo().getName();
+        CompletableFuture<Boolean> existing = pingsInFlight.get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (!trackedNames.contains(name)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CircuitBreaker breaker = getBreaker(name);
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        existing = pingsInFlight.putIfAbsent(name, result);
+        if (existing != null) {
+            return existing;
+        }
+
+        long startedAt = System.nanoTime();
+        registeredServer.ping()
+            .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+            .whenComplete((ping, throwable) -> {
+                long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+                if (throwable != null) {
+                    record(name, breaker, new ServerHealth(false, latency, 0, 0, System.currentTimeMillis()));
+                } else {
+                    ServerPing.Players players = ping.getPlayers().orElse(null);
+                    int online = players != null ? players.getOnline() : 0;
+                    int max = players != null ? Math.max(0, players.getMax()) : 0;
+                    record(name, breaker, new ServerHealth(true, latency, online, max, System.currentTimeMillis()));
+                }
+                pingsInFlight.remove(name, result);
+                result.complete(throwable == null);
+            });
+        return result;
+    }
+
+    /**
+     * 并行 ping 候选中还没有缓存记录的服务器，再返回可用的服务器，不阻塞调用线程
+     * 所有请求同时发出，共享同一个截止时间：收到足够的在线响应、全部返回或到达截止时间时完成。
+     * 供登录、/hub、/lobby 等异步路径在冷启动或重新加载后选择服务器前使用
+     */
+    public CompletableFuture<List<RegisteredServer>> probeAvailable(List<RegisteredServer> candidates) {
+        List<RegisteredServer> unknown = new ArrayList<>();
+        for (RegisteredServer candidate : candidates) {
+            if (getHealth(candidate) == null && allowsTraffic(candidate)) {
+                unknown.add(candidate);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return CompletableFuture.completedFuture(getAvailable(candidates));
+        }
+
+        int enough = Math.min(unknown.size(), PROBE_ENOUGH_HEALTHY);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicInteger healthy = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(unknown.size());
+        for (RegisteredServer candidate : unknown) {
+            pingAsync(candidate).whenComplete((online, throwable) -> {
+                if (Boolean.TRUE.equals(online) && healthy.incrementAndGet() >= enough) {
+                    done.complete(null);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    done.complete(null);
+                }
+            });
+        }
+        return done.completeOnTimeout(null, timeoutMillis, TimeUnit.MILLISECONDS)
+            .thenApply(ignored -> getAvailable(candidates));
+    }
+
+    /**
+     * 返回候选列表中可用的服务器，只读取缓存，从不等待 ping
+     * 缓存中没有记录的服务器（冷启动、刚注册等情况）不算可用，只在后台发起一次 ping 预热缓存；
+     * 需要等待确认的调用方应使用 {@link #probeAvailable(List)}
+     */
+    public List<RegisteredServer> getAvailable(List<RegisteredServer> candidates) {
+        List<RegisteredServer> online = new ArrayList<>(candidates.size());
+        for (RegisteredServer candidate : candidates) {
+            // 熔断中的服务器直接跳过
+            if (!allowsTraffic(candidate)) {
+                continue;
+            }
+            ServerHealth health = getHealth(candidate);
+            if (health == null) {
+                pingAsync(candidate);
+            } else if (health.isOnline()) {
+                online.add(candidate);
+            }
+        }
+        return online;
+    }
+
+    /**
+     * 服务器当前是否可以接收玩家：熔断器放行且缓存中最近一次 ping 在线，只读取缓存
+     */
+    public boolean isAvailable(RegisteredServer registeredServer) {
+        if (!allowsTraffic(registeredServer)) {
+            return false;
+        }
+        ServerHealth health = getHealth(registeredServer);
+        return health != null && health.isOnline();
+    }
+
+    private void record(String name, CircuitBreaker breaker, ServerHealth health) {
+        // ping 进行期间服务器可能已被 track() 移除，结果不再写回
+        if (!trackedNames.contains(name)) {
+            return;
+        }
+        healthCache.put(name, health);
+        // 只在熔断器状态变化时记录日志，避免每次 ping 失败都刷屏
+        boolean changed = health.isOnline() ? breaker.recordSuccess() : breaker.recordFailure();
+        if (!changed) {
+            return;
+        }
+        if (breaker.getState() == CircuitBreaker.State.CLOSED) {
+            logger.info("Lobby '{}' is back online ({} ms), routing resumed", name, health.getLatencyMillis());
+        } else {
+            logger.warn("Lobby '{}' appears to be offline, routing around it for {} ms", name, breakerOpenMillis);
+        }
+    }
+
+    private CircuitBreaker getBreaker(String name) {
+        return breakers.computeIfAbsent(name, k -> new CircuitBreaker(breakerFailureThreshold, breakerOpenMillis));
+    }
+
+    private boolean allowsTraffic(RegisteredServer registeredServer) {
+        CircuitBreaker breaker = breakers.get(registeredServer.getServerInfo().getName());
+        return breaker == null || breaker.allowsTraffic();
+    }
+
+    /**
+     * 获取服务器的熔断器（用于统计展示），从未 ping 过时返回 null
+     */
+    public CircuitBreaker getBreaker(RegisteredServer registeredServer) {
+        return breakers.get(registeredServer.getServerInfo().getName());
+    }
+
+    /**
+     * 当前被监控的服务器
+     */
+    public Collection<RegisteredServer> getTrackedServers() {
+        return trackedServers;
+    }
+
+    /**
+     * 获取服务器的健康快照，从未 ping 过时返回 null
+     */
+    public ServerHealth getHealth(RegisteredServer registeredServer) {
+        return healthCache.get(registeredServer.getServerInfo().getName());
+    }
+}
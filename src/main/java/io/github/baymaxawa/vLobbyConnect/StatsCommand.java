@@ -4,28 +4,45 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.TextComponent;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * StatsCommand - 显示插件统计信息和管理员命令
  */
 public class StatsCommand implements SimpleCommand {
 
+    private static final int DEBUG_PAGE_SIZE = 8;
+
     private final ProxyServer server;
     private final Logger logger;
     private ModLoaderDetector modLoaderDetector;
     private UpdateChecker updateChecker;
+    private ServerHealthMonitor healthMonitor;
+    private AdmissionQueue admissionQueue;
+    private ActivityLog activityLog;
+    private ConfigReloader configReloader;
 
-    public StatsCommand(ProxyServer server, Logger logger, ModLoaderDetector modLoaderDetector, UpdateChecker updateChecker) {
+    public StatsCommand(ProxyServer server, Logger logger, ModLoaderDetector modLoaderDetector, UpdateChecker updateChecker,
+                        ServerHealthMonitor healthMonitor, AdmissionQueue admissionQueue, ActivityLog activityLog,
+                        ConfigReloader configReloader) {
         this.server = server;
         this.logger = logger;
         this.modLoaderDetector = modLoaderDetector;
         this.updateChecker = updateChecker;
+        this.healthMonitor = healthMonitor;
+        this.admissionQueue = admissionQueue;
+        this.activityLog = activityLog;
+        this.configReloader = configReloader;
     }
 
     @Override
@@ -48,7 +65,19 @@ public class StatsCommand implements SimpleCommand {
                 }
                 return;
             } else if ("debug".equalsIgnoreCase(args[0])) {
-                debugModLoaderDetection(source);
+                debugModLoaderDetection(source, args.length > 1 ? args[1] : null);
+                return;
+            } else if ("reload".equalsIgnoreCase(args[0])) {
+                if (!source.hasPermission("vserverconnect.reload")) {
+                    source.sendMessage(Component.text("You don't have permission to reload the configuration.", NamedTextColor.RED));
+                } else if (configReloader != null) {
+                    source.sendMessage(Component.text(configReloader.reload(), NamedTextColor.YELLOW));
+                } else {
+                    source.sendMessage(Component.text("Configuration reload is not available.", NamedTextColor.RED));
+                }
+                return;
+            } else if ("trace".equalsIgnoreCase(args[0])) {
+                tracePlayer(source, args);
                 return;
             } else if ("help".equalsIgnoreCase(args[0])) {
                 showHelp(source);
@@ -80,6 +109,26 @@ public class StatsCommand implements SimpleCommand {
             }
         }
 
+        // 显示大厅健康状态和熔断器状态
+        if (healthMonitor != null) {
+            appendLobbyHealth(message);
+        }
+
+        // 显示登录排队状态
+        if (admissionQueue != null) {
+            message.append(Component.text("Admission Queue: ", NamedTextColor.YELLOW))
+                   .append(Component.text(admissionQueue.getDepth() + " waiting", NamedTextColor.WHITE))
+                   .append(Component.text(" [admitted " + admissionQueue.getAdmittedCount()
+                       + ", timed out " + admissionQueue.getTimedOutCount()
+                       + ", rejected " + admissionQueue.getRejectedCount() + "]\n", NamedTextColor.DARK_GRAY));
+            long p50 = admissionQueue.getWaitPercentile(50);
+            if (p50 >= 0) {
+                message.append(Component.text("  Wait p50/p95/p99: ", NamedTextColor.GRAY))
+                       .append(Component.text(p50 + " / " + admissionQueue.getWaitPercentile(95) + " / "
+                           + admissionQueue.getWaitPercentile(99) + " ms\n", NamedTextColor.WHITE));
+            }
+        }
+
         // 显示版本信息
         message.append(Component.text("Plugin Version: ", NamedTextColor.YELLOW))
                .append(Component.text(Constants.VERSION, NamedTextColor.WHITE))
@@ -113,61 +162,105 @@ public class StatsCommand implements SimpleCommand {
         source.sendMessage(message.build());
     }
 
+    private void appendLobbyHealth(TextComponent.Builder message) {
+        message.append(Component.text("Lobby Health:\n", NamedTextColor.YELLOW));
+        for (RegisteredServer lobby : healthMonitor.getTrackedServers()) {
+            ServerHealthMonitor.ServerHealth health = healthMonitor.getHealth(lobby);
+            CircuitBreaker breaker = healthMonitor.getBreaker(lobby);
+            CircuitBreaker.State state = breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED;
+            NamedTextColor stateColor = state == CircuitBreaker.State.CLOSED ? NamedTextColor.GREEN
+                : state == CircuitBreaker.State.OPEN ? NamedTextColor.RED : NamedTextColor.GOLD;
+
+            message.append(Component.text("  ", NamedTextColor.GRAY))
+                   .append(Component.text(lobby.getServerInfo().getName(), NamedTextColor.AQUA))
+                   .append(Component.text(": ", NamedTextColor.GRAY))
+                   .append(Component.text(state.name(), stateColor));
+            if (health == null) {
+                message.append(Component.text(" (not checked yet)", NamedTextColor.GRAY));
+            } else if (health.isOnline()) {
+                String capacity = health.getMaxPlayers() > 0 ? "/" + health.getMaxPlayers() : "";
+                message.append(Component.text(" " + health.getPlayerCount() + capacity + " players, "
+                    + health.getLatencyMillis() + " ms", NamedTextColor.WHITE));
+            } else {
+                message.append(Component.text(" offline", NamedTextColor.RED));
+            }
+            message.append(Component.text(" [opened " + breaker.getOpenCount() + ", probed "
+                    + breaker.getHalfOpenCount() + ", closed " + breaker.getCloseCount() + "]\n", NamedTextColor.DARK_GRAY));
+        }
+    }
+
     @Override
     public boolean hasPermission(Invocation invocation) {
         return invocation.source().hasPermission("vserverconnect.stats");
     }
     
-    private void debugModLoaderDetection(CommandSource source) {
+    private void debugModLoaderDetection(CommandSource source, String pageArgument) {
         if (modLoaderDetector == null) {
             source.sendMessage(Component.text("Mod loader detector is not available.", NamedTextColor.RED));
             return;
         }
-        
+
+        int page = 1;
+        if (pageArgument != null) {
+            try {
+                page = Integer.parseInt(pageArgument);
+            } catch (NumberFormatException e) {
+                source.sendMessage(Component.text("Usage: /vsc debug [page]", NamedTextColor.RED));
+                return;
+            }
+        }
+
+        // 按名称排序后分页，每页只读取本页玩家的检测快照
+        List<Player> players = new ArrayList<>(server.getAllPlayers());
+        players.sort(Comparator.comparing(Player::getUsername, String.CASE_INSENSITIVE_ORDER));
+        int pages = Math.max(1, (players.size() + DEBUG_PAGE_SIZE - 1) / DEBUG_PAGE_SIZE);
+        page = Math.max(1, Math.min(page, pages));
+
         TextComponent.Builder debug = Component.text()
-            .append(Component.text("=== Client Detection Debug ===\n", NamedTextColor.GOLD));
-        
-        // 检查所有在线玩家的模组加载器状态
-        for (Player player : server.getAllPlayers()) {
+            .append(Component.text("=== Client Detection Debug (page " + page + "/" + pages + ") ===\n", NamedTextColor.GOLD));
+
+        int end = Math.min(players.size(), page * DEBUG_PAGE_SIZE);
+        for (Player player : players.subList((page - 1) * DEBUG_PAGE_SIZE, end)) {
+            ModLoaderDetector.Snapshot snapshot = modLoaderDetector.getSnapshot(player);
             debug.append(Component.text("Player: ", NamedTextColor.YELLOW))
-                 .append(Component.text(player.getUsername(), NamedTextColor.AQUA))
-                 .append(Component.newline())
-                 .append(Component.text("  Current Loader: ", NamedTextColor.GRAY))
-                 .append(Component.text(modLoaderDetector.getModLoader(player), NamedTextColor.WHITE))
-                 .append(Component.newline())
-                 .append(Component.text("  Delayed Loader: ", NamedTextColor.GRAY))
-                 .append(Component.text(modLoaderDetector.getModLoaderWithDelay(player), NamedTextColor.WHITE))
-                 .append(Component.newline())
+                 .append(Component.text(player.getUsername(), NamedTextColor.AQUA));
+            if (activityLog != null && activityLog.isTraced(player.getUniqueId())) {
+                debug.append(Component.text(" [traced]", NamedTextColor.LIGHT_PURPLE));
+            }
+            debug.append(Component.newline())
                  .append(Component.text("  Protocol Version: ", NamedTextColor.GRAY))
                  .append(Component.text(player.getProtocolVersion().getName(), NamedTextColor.WHITE))
-                 .append(Component.newline())
-                 .append(Component.text("  Brand: ", NamedTextColor.GRAY))
-                 .append(Component.text(modLoaderDetector.getPlayerBrand(player), NamedTextColor.WHITE))
                  .append(Component.newline());
-            
-            // 添加详细的客户端检测信息
-            String details = modLoaderDetector.getClientDetectionDetails(player);
-            String[] detailLines = details.split("\n");
-            for (String line : detailLines) {
-                if (line.contains(":")) {
-                    String[] parts = line.split(":", 2);
-                    debug.append(Component.text("  " + parts[0] + ": ", NamedTextColor.DARK_GRAY))
-                         .append(Component.text(parts[1].trim(), NamedTextColor.LIGHT_PURPLE))
-                         .append(Component.newline());
-                }
+            if (snapshot == null) {
+                debug.append(Component.text("  No client info available\n", NamedTextColor.DARK_GRAY));
+                continue;
             }
-            
-            debug.append(Component.text("  UUID: ", NamedTextColor.GRAY))
-                 .append(Component.text(player.getUniqueId().toString(), NamedTextColor.DARK_GRAY))
+            debug.append(Component.text("  Current Loader: ", NamedTextColor.GRAY))
+                 .append(Component.text(snapshot.getLoader().name(), NamedTextColor.WHITE))
+                 .append(Component.text(snapshot.isComplete() ? " (complete)" : " (pending)", NamedTextColor.DARK_GRAY))
+                 .append(Component.newline())
+                 .append(Component.text("  Brand: ", NamedTextColor.GRAY))
+                 .append(Component.text(snapshot.getBrand(), NamedTextColor.WHITE))
                  .append(Component.newline())
-                 .append(Component.text("---", NamedTextColor.GRAY))
+                 .append(Component.text("  Channel Loader: ", NamedTextColor.DARK_GRAY))
+                 .append(Component.text(snapshot.getChannelLoader().name(), NamedTextColor.LIGHT_PURPLE))
+                 .append(Component.text(", Handshakes: ", NamedTextColor.DARK_GRAY))
+                 .append(Component.text(handshakes(snapshot), NamedTextColor.LIGHT_PURPLE))
+                 .append(Component.newline())
+                 .append(Component.text("  Plugin Messages: ", NamedTextColor.DARK_GRAY))
+                 .append(Component.text(snapshot.getPluginMessageCount()
+                     + (snapshot.hasCustomPayload() ? " (custom payload)" : ""), NamedTextColor.LIGHT_PURPLE))
                  .append(Component.newline());
         }
-        
+
+        if (page < pages) {
+            debug.append(Component.text("Next page: /vsc debug " + (page + 1) + "\n", NamedTextColor.GRAY));
+        }
+
         // 显示统计信息
         Map<String, Integer> stats = modLoaderDetector.getDetectionStats();
         if (!stats.isEmpty()) {
-            debug.append(Component.text("\nDetection Stats:\n", NamedTextColor.YELLOW));
+            debug.append(Component.text("Detection Stats:\n", NamedTextColor.YELLOW));
             for (Map.Entry<String, Integer> entry : stats.entrySet()) {
                 debug.append(Component.text("  ", NamedTextColor.GRAY))
                      .append(Component.text(entry.getKey(), NamedTextColor.AQUA))
@@ -179,6 +272,75 @@ public class StatsCommand implements SimpleCommand {
         
         source.sendMessage(debug.build());
     }
+
+    private static String handshakes(ModLoaderDetector.Snapshot snapshot) {
+        StringBuilder names = new StringBuilder();
+        for (ModLoader loader : ModLoader.values()) {
+            if (snapshot.hasHandshake(loader)) {
+                names.append(names.length() > 0 ? ", " : "").append(loader.name());
+            }
+        }
+        return names.length() > 0 ? names.toString() : "none";
+    }
+
+    /**
+     * /vsc trace <player> [show|off]：开始追踪玩家，已在追踪时显示追踪缓冲区
+     */
+    private void tracePlayer(CommandSource source, String[] args) {
+        if (activityLog == null) {
+            source.sendMessage(Component.text("Tracing is not available.", NamedTextColor.RED));
+            return;
+        }
+        if (args.length < 2) {
+            source.sendMessage(Component.text("Usage: /vsc trace <player> [show|off]", NamedTextColor.RED));
+            return;
+        }
+        Optional<Player> target = server.getPlayer(args[1]);
+        if (target.isEmpty()) {
+            source.sendMessage(Component.text("Player " + args[1] + " is not online.", NamedTextColor.RED));
+            return;
+        }
+        Player player = target.get();
+        String action = args.length > 2 ? args[2].toLowerCase() : "";
+
+        if ("off".equals(action)) {
+            if (activityLog.untrace(player.getUniqueId())) {
+                source.sendMessage(Component.text("Stopped tracing " + player.getUsername() + ".", NamedTextColor.GREEN));
+                logger.info("{} stopped tracing {}", source instanceof Player ? ((Player) source).getUsername() : "Console",
+                    player.getUsername());
+            } else {
+                source.sendMessage(Component.text(player.getUsername() + " is not being traced.", NamedTextColor.GRAY));
+            }
+            return;
+        }
+
+        if (!"show".equals(action) && activityLog.trace(player.getUniqueId())) {
+            source.sendMessage(Component.text("Tracing " + player.getUsername()
+                + ". Their detection and routing events are now logged and kept for /vsc trace "
+                + player.getUsername() + ".", NamedTextColor.GREEN));
+            logger.info("{} started tracing {}", source instanceof Player ? ((Player) source).getUsername() : "Console",
+                player.getUsername());
+            return;
+        }
+
+        List<String> events = activityLog.getTrace(player.getUniqueId());
+        if (events == null) {
+            source.sendMessage(Component.text(player.getUsername() + " is not being traced. Use /vsc trace "
+                + player.getUsername() + " to start.", NamedTextColor.GRAY));
+            return;
+        }
+        TextComponent.Builder trace = Component.text()
+            .append(Component.text("=== Trace for " + player.getUsername() + " (" + events.size() + " events) ===\n",
+                NamedTextColor.GOLD));
+        if (events.isEmpty()) {
+            trace.append(Component.text("No events recorded yet. Reconnecting records the full login.\n", NamedTextColor.GRAY));
+        }
+        for (String event : events) {
+            trace.append(Component.text(event + "\n", NamedTextColor.WHITE));
+        }
+        trace.append(Component.text("Stop with /vsc trace " + player.getUsername() + " off", NamedTextColor.GRAY));
+        source.sendMessage(trace.build());
+    }
     
     private void showHelp(CommandSource source) {
         TextComponent.Builder help = Component.text()
@@ -187,8 +349,12 @@ public class StatsCommand implements SimpleCommand {
             .append(Component.text(" - Show plugin statistics\n", NamedTextColor.WHITE))
             .append(Component.text("/vsc update", NamedTextColor.YELLOW))
             .append(Component.text(" - Check for updates\n", NamedTextColor.WHITE))
-            .append(Component.text("/vsc debug", NamedTextColor.YELLOW))
+            .append(Component.text("/vsc debug [page]", NamedTextColor.YELLOW))
             .append(Component.text(" - Debug mod loader detection\n", NamedTextColor.WHITE))
+            .append(Component.text("/vsc reload", NamedTextColor.YELLOW))
+            .append(Component.text(" - Reload server groups from config.yml\n", NamedTextColor.WHITE))
+            .append(Component.text("/vsc trace <player> [show|off]", NamedTextColor.YELLOW))
+            .append(Component.text(" - Trace a player's detection and routing\n", NamedTextColor.WHITE))
             .append(Component.text("/vsc help", NamedTextColor.YELLOW))
             .append(Component.text(" - Show this help message\n", NamedTextColor.WHITE))
             .append(Component.text("/lobby or /hub", NamedTextColor.YELLOW))
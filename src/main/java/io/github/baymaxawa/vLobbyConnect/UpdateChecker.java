@@ -3,6 +3,7 @@ package io.github.baymaxawa.vLobbyConnect;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.scheduler.ScheduledTask;
 import org.slf4j.Logger;
 
 import java.io.BufferedReader;
@@ -30,6 +31,7 @@ public class UpdateChecker {
     private String lastVersion;
     private String latestVersion;
     private boolean updateAvailable;
+    private ScheduledTask checkTask;
     
     public UpdateChecker(ProxyServer server, Logger logger, boolean updateCheckEnabled, long checkIntervalHours) {
         this.server = server;
@@ -55,11 +57,21 @@ public class UpdateChecker {
         checkForUpdates();
         
         // 设置定期检查
-        server.getScheduler().buildTask(plugin, () -> checkForUpdates())
+        checkTask = server.getScheduler().buildTask(plugin, () -> checkForUpdates())
             .repeat(checkIntervalHours, TimeUnit.HOURS)
             .schedule();
     }
     
+    /**
+     * 停止定期更新检查
+     */
+    public void stop() {
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
+    }
+    
     /**
      * 检查更新（异步执行）
      */
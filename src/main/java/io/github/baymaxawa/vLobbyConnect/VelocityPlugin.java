@@ -1,36 +1,35 @@
 package io.github.baymaxawa.vLobbyConnect;
 
 import com.google.inject.Inject;
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.PostOrder;
 import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.player.PlayerChooseInitialServerEvent;
+import com.velocitypowered.api.event.player.ServerPostConnectEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.event.proxy.server.ServerRegisteredEvent;
+import com.velocitypowered.api.event.proxy.server.ServerUnregisteredEvent;
 import com.velocitypowered.api.plugin.Plugin;
+import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
 import org.slf4j.Logger;
 
-import java.io.File;
-import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import org.yaml.snakeyaml.Yaml;
 
 import net.kyori.adventure.text.Component;
 
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 @Plugin(
 	id = "vserverconnect",
@@ -50,36 +49,59 @@ public final class VelocityPlugin {
 	@Inject
 	private Metrics.Factory metricsFactory;
 
-	private final Map<String, List<RegisteredServer>> Servers = new HashMap<>();
-	private final Map<UUID, Integer> connectionAttempts = new ConcurrentHashMap<>();
+	@Inject
+	@DataDirectory
+	private Path dataDirectory;
+
+	private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
 	private ModLoaderDetector modLoaderDetector;
 	private UpdateChecker updateChecker;
+	private RoutingService routingService;
+	private ServerHealthMonitor healthMonitor;
+	private PendingConnections pendingConnections;
+	private LoaderCache loaderCache;
+	private LobbyAffinity lobbyAffinity;
+	private AdmissionQueue admissionQueue;
+	private ActivityLog activityLog;
+	private EvacuationPlanner evacuationPlanner;
+	private ConfigReloader configReloader;
 
 	@Subscribe
 	public void onProxyInitialize(ProxyInitializeEvent event) {
 		int pluginId = 24615;
 		Metrics metrics = metricsFactory.make(this, pluginId);
 		
-		// 初始化模组加载器检测器
-		modLoaderDetector = new ModLoaderDetector(server, logger, this);
-		server.getEventManager().register(this, modLoaderDetector);
-
 		// 读取配置文件
 		boolean updateCheckEnabled = true;
 		long checkIntervalHours = 6;
+		long healthCheckIntervalSeconds = 5;
+		long healthCheckTimeoutMillis = 2000;
+		String balancerStrategy = "least-loaded";
+		long reservationTimeoutSeconds = 10;
+		Map<String, Object> queueConfig = null;
+		int breakerFailureThreshold = 3;
+		long breakerOpenSeconds = 30;
+		long detectionMaxWaitMillis = 1000;
+		Map<String, Object> detectionChannels = null;
+		Map<String, Object> loaderCacheConfig = null;
+		List<Object> detectionRuleConfig = null;
+		Map<String, Object> loggingConfig = null;
+		Map<String, Object> evacuationConfig = null;
+		Map<String, Object> affinityConfig = null;
+		boolean watchConfig = false;
 		Map<String, Object> config = null;
+
+		// 旧版本使用固定的 plugins/vServerConnect 目录，已有配置时继续使用
+		Path legacyDirectory = Path.of("plugins", "vServerConnect");
+		if (!Files.exists(dataDirectory.resolve("config.yml")) && Files.exists(legacyDirectory.resolve("config.yml"))) {
+			logger.info("Using existing configuration directory {}", legacyDirectory);
+			dataDirectory = legacyDirectory;
+		}
+		Path configFile = dataDirectory.resolve("config.yml");
 		
 		try {
-			// Load the config.yml file
-			Yaml yaml = new Yaml();
-			File configFile = new File("plugins/vServerConnect/config.yml");
-			if (!configFile.exists()) {
-				configFile.getParentFile().mkdirs();
-				Files.copy(getClass().getResourceAsStream("/config.yml"), configFile.toPath());
-			}
-
-			// Parse the config.yml file
-			config = yaml.load(Files.newInputStream(configFile.toPath()));
+			// Load and parse the config.yml file
+			config = ConfigReloader.load(configFile);
 			
 			Map<String, Object> updateCheckConfig = (Map<String, Object>) config.get("update-check");
 			if (updateCheckConfig != null) {
@@ -90,293 +112,453 @@ public final class VelocityPlugin {
 					if (checkIntervalHours < 1) checkIntervalHours = 1;
 				}
 			}
+
+			Map<String, Object> healthCheckConfig = (Map<String, Object>) config.get("health-check");
+			if (healthCheckConfig != null) {
+				Object interval = healthCheckConfig.get("interval-seconds");
+				if (interval instanceof Number) {
+					healthCheckIntervalSeconds = Math.max(1, ((Number) interval).longValue());
+				}
+				Object timeout = healthCheckConfig.get("timeout-ms");
+				if (timeout instanceof Number) {
+					healthCheckTimeoutMillis = Math.max(100, ((Number) timeout).longValue());
+				}
+				Object threshold = healthCheckConfig.get("failure-threshold");
+				if (threshold instanceof Number) {
+					breakerFailureThreshold = Math.max(1, ((Number) threshold).intValue());
+				}
+				Object openSeconds = healthCheckConfig.get("open-seconds");
+				if (openSeconds instanceof Number) {
+					breakerOpenSeconds = Math.max(1, ((Number) openSeconds).longValue());
+				}
+			}
+
+			Map<String, Object> balancerConfig = (Map<String, Object>) config.get("load-balancer");
+			if (balancerConfig != null && balancerConfig.get("strategy") != null) {
+				balancerStrategy = balancerConfig.get("strategy").toString();
+			}
+			if (balancerConfig != null && balancerConfig.get("reservation-timeout-seconds") instanceof Number) {
+				reservationTimeoutSeconds = Math.max(1, ((Number) balancerConfig.get("reservation-timeout-seconds")).longValue());
+			}
+
+			queueConfig = (Map<String, Object>) config.get("admission-queue");
+
+			Map<String, Object> detectionConfig = (Map<String, Object>) config.get("mod-detection");
+			if (detectionConfig != null && detectionConfig.get("max-wait-ms") instanceof Number) {
+				detectionMaxWaitMillis = Math.max(100, ((Number) detectionConfig.get("max-wait-ms")).longValue());
+			}
+			if (detectionConfig != null && detectionConfig.get("channels") instanceof Map) {
+				detectionChannels = (Map<String, Object>) detectionConfig.get("channels");
+			}
+			if (detectionConfig != null && detectionConfig.get("rules") instanceof List) {
+				detectionRuleConfig = (List<Object>) detectionConfig.get("rules");
+			}
+			if (detectionConfig != null && detectionConfig.get("cache") instanceof Map) {
+				loaderCacheConfig = (Map<String, Object>) detectionConfig.get("cache");
+			}
+
+			loggingConfig = (Map<String, Object>) config.get("logging");
+			evacuationConfig = (Map<String, Object>) config.get("evacuation");
+			affinityConfig = (Map<String, Object>) config.get("affinity");
+			Map<String, Object> reloadConfig = (Map<String, Object>) config.get("reload");
+			watchConfig = reloadConfig != null && Boolean.TRUE.equals(reloadConfig.get("watch-file"));
 		} catch (Exception e) {
-			logger.warn("Failed to load update check configuration, using defaults", e);
+			logger.warn("Failed to load configuration, using defaults", e);
 		}
 		
+		// 每个玩家的日志采样限速，常规登录情况定期汇总输出
+		activityLog = createActivityLog(loggingConfig);
+		activityLog.start(this);
+
+		// 初始化模组加载器检测器
+		ChannelClassifier channelClassifier = ChannelClassifier.fromConfig(detectionChannels, logger);
+		loaderCache = createLoaderCache(loaderCacheConfig);
+		DetectionRules detectionRules = DetectionRules.compile(detectionRuleConfig, logger);
+		modLoaderDetector = new ModLoaderDetector(logger, detectionMaxWaitMillis, channelClassifier, detectionRules, loaderCache,
+			activityLog);
+		server.getEventManager().register(this, modLoaderDetector);
+		metrics.addCustomChart(new Metrics.AdvancedPie("mod_loaders", modLoaderDetector::getDetectionStats));
+		metrics.addCustomChart(new Metrics.DrilldownPie("version_mod_loaders", modLoaderDetector::getVersionLoaderStats));
+
 		// 初始化更新检查器
 		updateChecker = new UpdateChecker(server, logger, updateCheckEnabled, checkIntervalHours);
 		updateChecker.startUpdateCheck(this);
 
-        Map<String, String> servers = null;
+        Map<String, Object> servers = null;
+        Map<String, Object> fallbackConfig = null;
         if (config != null) {
-            servers = (Map<String, String>) config.get("servers");
+            servers = (Map<String, Object>) config.get("servers");
+            if (config.get("fallback") instanceof Map) {
+                fallbackConfig = (Map<String, Object>) config.get("fallback");
+            }
+        }
+        LoadBalancer loadBalancer = LoadBalancer.fromName(balancerStrategy);
+        if (loadBalancer == null) {
+            logger.warn("Unknown load balancer strategy '{}', using least-loaded", balancerStrategy);
+            loadBalancer = new LoadBalancer.LeastLoaded();
+        }
+        logger.info("Using '{}' load balancing strategy.", loadBalancer.getName());
+
+        // 跟踪已选定目标但尚未连上的玩家，负载均衡时计入负载
+        pendingConnections = new PendingConnections(server, logger, TimeUnit.SECONDS.toMillis(reservationTimeoutSeconds));
+        pendingConnections.start(this);
+
+        // 后台健康检查，路由只读取缓存结果
+        healthMonitor = new ServerHealthMonitor(server, logger,
+                TimeUnit.SECONDS.toMillis(healthCheckIntervalSeconds), healthCheckTimeoutMillis,
+                breakerFailureThreshold, TimeUnit.SECONDS.toMillis(breakerOpenSeconds));
+
+        // 重新连接的玩家优先回到上次的大厅，记录在第一次查询时才从磁盘读入
+        lobbyAffinity = createLobbyAffinity(affinityConfig);
+        if (lobbyAffinity != null) {
+            // 后台读入，读完之前登录按没有记录处理
+            lobbyAffinity.loadAsync();
         }
+
+        // 所有入口共用同一个路由服务，配置只在这里解析一次
+        routingService = new RoutingService(modLoaderDetector, healthMonitor, pendingConnections, loadBalancer, lobbyAffinity);
+
+        // Validate the configuration and compile it into an immutable routing table
+        // 没有 servers 段时保留空路由表，插件其余部分照常启动，修正配置后可以用 /vsc reload 加载
+        RoutingTable routingTable = RoutingTable.EMPTY;
         if (servers == null) {
-            logger.error("Failed to load server settings.");
-            return;
+            logger.error("Failed to load server settings, fix config.yml and run /vsc reload.");
+        } else {
+            routingTable = RoutingTable.compile(servers, fallbackConfig, server, logger);
         }
+        routingService.updateTable(routingTable);
+        healthMonitor.start(this);
 
-        // Validate and log the configuration
-        // 正则表达式分组解释：
-        // group(1): 完整的VIA前缀（如果有），如"VIA-"
-        // group(2): 仅"VIA"（如果有）
-        // group(3): 版本号加横杠（如果有），如"1.20-"
-        // group(4): 模组加载器，如"VANILLA"
-        // group(5): 末尾编号（如果有），如"1"
-        Pattern pattern = Pattern.compile("^((VIA)-)?((?:\\d+(?:\\.\\d+)*)-)?([A-Z]+)(?:-(\\d+))?$");
-
-        for (Map.Entry<String, String> entry : servers.entrySet()) {
-            String configKey = entry.getKey();
-            Matcher matcher = pattern.matcher(configKey);
-
-            if (matcher.matches()) {
-                // 提取分组信息
-                String viaPrefix = matcher.group(1);  // 完整的VIA前缀，如"VIA-"或null
-                String via = matcher.group(2);         // 仅"VIA"或null
-                String versionWithDash = matcher.group(3); // 版本号加横杠，如"1.20-"或null
-                String loader = matcher.group(4);     // 模组加载器，如"VANILLA"
-                String number = matcher.group(5);      // 末尾编号，如"1"或null
-
-                // 清理版本号：去掉末尾的横杠
-                String version = (versionWithDash != null && versionWithDash.endsWith("-"))
-                        ? versionWithDash.substring(0, versionWithDash.length() - 1)
-                        : null;
-
-                // 如果有VIA前缀，但版本号存在，这是无效组合
-                if (via != null && version != null) {
-                    logger.warn("Invalid combination: VIA prefix with version number in key: {}", configKey);
-                    continue;
-                }
-
-                // 确定版本标识：如果有VIA前缀，使用"VIA"，否则使用实际的版本号
-                String versionIdentifier = (via != null) ? "VIA" : version;
-
-                String serverName = entry.getValue();
-                Optional<RegisteredServer> serverOpt = server.getServer(serverName);
-
-                if (serverOpt.isPresent()) {
-                    RegisteredServer registeredServer = serverOpt.get();
-
-                    // 使用版本标识作为键存储服务器
-                    Servers.computeIfAbsent(versionIdentifier, k -> new ArrayList<>()).add(registeredServer);
-
-                    // 构建详细的日志信息
-                    StringBuilder logBuilder = new StringBuilder();
-                    logBuilder.append("Config servers, ");
-
-                    if (via != null) {
-                        logBuilder.append("[VIA] ");
-                    } else if (version != null) {
-                        logBuilder.append("[VERSION] ").append(version).append(" ");
-                    }
-
-                    logBuilder.append("[LOADER] ").append(loader);
-
-                    if (number != null) {
-                        logBuilder.append(" [NUMBER] ").append(number);
-                    }
-
-                    logBuilder.append(" Server: ").append(serverName)
-                            .append(" IP: ").append(registeredServer.getServerInfo().getAddress());
-
-                    logger.info(logBuilder.toString());
-                } else {
-                    logger.warn("Server '{}' not found in Velocity configuration for key: {}", serverName, configKey);
-                }
-            } else {
-                logger.warn("Invalid server configuration key format: {}", configKey);
-                logger.warn("Expected format: VERSION-LOADER-NUMBER or VIA-LOADER-NUMBER");
-                logger.warn("Examples: 1.20-VANILLA-1, 1.20.1-FORGE, VIA-VANILLA-2, 1.21-FABRIC");
-            }
+        // /vsc reload 和可选的文件监听只重新编译路由表
+        configReloader = new ConfigReloader(server, logger, configFile, routingService);
+        if (watchConfig) {
+            configReloader.startWatching(this);
         }
 
         // Check if all lobbies were retrieved successfully
-        if (Servers.isEmpty()) {
+        if (servers != null && routingTable.isEmpty()) {
             logger.error("No valid servers were found. Ensure they are defined in velocity.toml.");
-        } else {
-            logger.info("vServerConnect initialized successfully. Loaded {} version group(s).", Servers.size());
+        } else if (servers != null) {
+            logger.info("vServerConnect initialized successfully. Loaded {} server group(s).", routingTable.getGroups().size());
+        }
+
+        // 后端服务器崩溃时批量疏散被踢出的玩家
+        evacuationPlanner = createEvacuationPlanner(evacuationConfig);
+        if (evacuationPlanner != null) {
+            evacuationPlanner.start(this);
+        }
+
+        // 所有大厅都满员时的登录排队
+        admissionQueue = createAdmissionQueue(queueConfig);
+        if (admissionQueue != null) {
+            admissionQueue.start(this);
         }
 
         // Register commands
-		server.getCommandManager().register("hub", new HubCommand(server, logger, this));
-		server.getCommandManager().register("lobby", new LobbyCommand(server, logger, this));
-		server.getCommandManager().register("vsc", new StatsCommand(server, logger, modLoaderDetector, updateChecker));
+		server.getCommandManager().register("hub", new HubCommand(server, logger, routingService, activityLog));
+		server.getCommandManager().register("lobby", new LobbyCommand(server, logger, routingService, activityLog));
+		server.getCommandManager().register("vsc", new StatsCommand(server, logger, modLoaderDetector, updateChecker, healthMonitor, admissionQueue,
+			activityLog, configReloader));
 	}
 
-	@Subscribe(order = PostOrder.FIRST)
-	void onPlayerJoin(final PlayerChooseInitialServerEvent event) {
-		Player player = event.getPlayer();
-		UUID uuid = player.getUniqueId();
-		int attempts = connectionAttempts.getOrDefault(uuid, 0) + 1;
-		connectionAttempts.put(uuid, attempts);
+	@SuppressWarnings("unchecked")
+	private ActivityLog createActivityLog(Map<String, Object> loggingConfig) {
+		long reportIntervalSeconds = 60;
+		int sampleRate = 1;
+		int maxLinesPerSecond = 20;
+		int traceBufferSize = 128;
+		Map<ActivityLog.Category, int[]> limits = new EnumMap<>(ActivityLog.Category.class);
+		if (loggingConfig != null) {
+			if (loggingConfig.get("report-interval-seconds") instanceof Number) {
+				reportIntervalSeconds = Math.max(1, ((Number) loggingConfig.get("report-interval-seconds")).longValue());
+			}
+			if (loggingConfig.get("sample-rate") instanceof Number) {
+				sampleRate = Math.max(1, ((Number) loggingConfig.get("sample-rate")).intValue());
+			}
+			if (loggingConfig.get("max-lines-per-second") instanceof Number) {
+				maxLinesPerSecond = ((Number) loggingConfig.get("max-lines-per-second")).intValue();
+			}
+			if (loggingConfig.get("trace-buffer-size") instanceof Number) {
+				traceBufferSize = Math.max(1, ((Number) loggingConfig.get("trace-buffer-size")).intValue());
+			}
+			Object categories = loggingConfig.get("categories");
+			if (categories instanceof Map) {
+				for (Map.Entry<String, Object> entry : ((Map<String, Object>) categories).entrySet()) {
+					ActivityLog.Category category;
+					try {
+						category = ActivityLog.Category.valueOf(entry.getKey().toUpperCase());
+					} catch (IllegalArgumentException e) {
+						logger.warn("Unknown logging category '{}', ignoring", entry.getKey());
+						continue;
+					}
+					if (!(entry.getValue() instanceof Map)) {
+						continue;
+					}
+					Map<String, Object> limit = (Map<String, Object>) entry.getValue();
+					limits.put(category, new int[] {
+						limit.get("sample-rate") instanceof Number
+							? Math.max(1, ((Number) limit.get("sample-rate")).intValue()) : sampleRate,
+						limit.get("max-lines-per-second") instanceof Number
+							? ((Number) limit.get("max-lines-per-second")).intValue() : maxLinesPerSecond
+					});
+				}
+			}
+		}
+		return new ActivityLog(server, logger, reportIntervalSeconds, sampleRate, maxLinesPerSecond, limits, traceBufferSize);
+	}
 
-		// 获取版本信息
-		String protocolVersion = player.getProtocolVersion().getName();
-		String version = extractVersionFromProtocol(protocolVersion);
-		
-		// 获取模组加载器，使用带延迟的方法以获得更准确的结果
-		String loader = modLoaderDetector.getModLoaderWithDelay(player);
-		
-		// 构建服务器查找键
-		String serverKey = buildServerKey(version, loader);
-		List<RegisteredServer> servers = Servers.get(serverKey);
-		
-		// Fallback if no exact match exists:
-		if (servers == null || servers.isEmpty()) {
-			servers = getFallbackServers(version, loader);
+	private LoaderCache createLoaderCache(Map<String, Object> cacheConfig) {
+		if (cacheConfig != null && Boolean.FALSE.equals(cacheConfig.get("enabled"))) {
+			return null;
 		}
-		
-		if (servers == null || servers.isEmpty()) {
-			player.sendMessage(Component.text("No servers available for your Minecraft version or loader."));
-			logger.warn("No servers available for version {} or loader {}", version, loader);
-			return;
+		int maxEntries = 10000;
+		long ttlDays = 30;
+		if (cacheConfig != null && cacheConfig.get("max-entries") instanceof Number) {
+			maxEntries = Math.max(1, ((Number) cacheConfig.get("max-entries")).intValue());
 		}
-
-		RegisteredServer targetServer = getLeastLoadedServer(servers);
-
-		if (targetServer == null) {
-			// Try fallback server if all version-specific server are offline
-			List<RegisteredServer> fallbackServers = getAllFallbackServers();
-			if (fallbackServers != null && !fallbackServers.isEmpty()) {
-				targetServer = getLeastLoadedServer(fallbackServers);
-			}
+		if (cacheConfig != null && cacheConfig.get("ttl-days") instanceof Number) {
+			ttlDays = Math.max(1, ((Number) cacheConfig.get("ttl-days")).longValue());
 		}
+		LoaderCache cache = new LoaderCache(logger, dataDirectory.resolve("loader-cache.dat"),
+			maxEntries, TimeUnit.DAYS.toMillis(ttlDays));
+		cache.load();
+		return cache;
+	}
 
-		if (targetServer == null) {
-			player.sendMessage(Component.text("All servers are currently unavailable, please try again later."));
-			logger.warn("All servers are offline for version {} or loader {}", version, loader);
-			return;
+	private LobbyAffinity createLobbyAffinity(Map<String, Object> affinityConfig) {
+		if (affinityConfig == null || !Boolean.TRUE.equals(affinityConfig.get("enabled"))) {
+			return null;
 		}
-
-		if (player.getCurrentServer().isPresent() &&
-			player.getCurrentServer().get().getServerInfo().getName().equals(targetServer.getServerInfo().getName())) {
-			player.sendMessage(Component.text("You are already in a server."));
-			return;
+		int maxEntries = 10000;
+		long ttlMinutes = 30;
+		double maxLoadRatio = 0.9;
+		if (affinityConfig.get("max-entries") instanceof Number) {
+			maxEntries = Math.max(1, ((Number) affinityConfig.get("max-entries")).intValue());
 		}
-
-		// 记录连接信息，使用最终检测到的模组加载器
-		String finalLoader = modLoaderDetector.getModLoader(player);
-		logger.info("Player {} connecting to lobby '{}' (version: {}, loader: {})", 
-			player.getUsername(), targetServer.getServerInfo().getName(), version, finalLoader);
-		// Instead of a connection request, set the initial server directly:
-		event.setInitialServer(targetServer);
+		if (affinityConfig.get("ttl-minutes") instanceof Number) {
+			ttlMinutes = Math.max(1, ((Number) affinityConfig.get("ttl-minutes")).longValue());
+		}
+		if (affinityConfig.get("max-load-ratio") instanceof Number) {
+			maxLoadRatio = Math.min(1.0, Math.max(0.0, ((Number) affinityConfig.get("max-load-ratio")).doubleValue()));
+		}
+		logger.info("Lobby affinity enabled (ttl: {} min, max load ratio: {}).", ttlMinutes, maxLoadRatio);
+		return new LobbyAffinity(logger, dataDirectory.resolve("lobby-affinity.dat"),
+			maxEntries, TimeUnit.MINUTES.toMillis(ttlMinutes), maxLoadRatio);
 	}
 
-	private RegisteredServer getLeastLoadedServer(List<RegisteredServer> servers) {
-		// Filter only online lobbies
-		List<RegisteredServer> onlineServers = servers.stream()
-			.filter(this::isServerOnline)
-			.collect(Collectors.toList());
-		
-		if (onlineServers.isEmpty()) {
+	private EvacuationPlanner createEvacuationPlanner(Map<String, Object> evacuationConfig) {
+		if (evacuationConfig != null && Boolean.FALSE.equals(evacuationConfig.get("enabled"))) {
 			return null;
 		}
-
-		return onlineServers.stream()
-			.min(Comparator.comparingInt(server -> server.getPlayersConnected().size()))
-			.orElse(null);
+		int burstThreshold = 20;
+		long windowMillis = 1000;
+		if (evacuationConfig != null && evacuationConfig.get("burst-threshold") instanceof Number) {
+			burstThreshold = Math.max(2, ((Number) evacuationConfig.get("burst-threshold")).intValue());
+		}
+		if (evacuationConfig != null && evacuationConfig.get("window-ms") instanceof Number) {
+			windowMillis = Math.max(100, ((Number) evacuationConfig.get("window-ms")).longValue());
+		}
+		return new EvacuationPlanner(server, logger, routingService, burstThreshold, windowMillis);
 	}
 
-	// Helper: Fallback to the highest available lobby version when an exact match is missing.
-	private List<RegisteredServer> getFallbackServers(String playerVersion, String loader) {
-		// 首先尝试同版本的其他加载器
-		for (Map.Entry<String, List<RegisteredServer>> entry : Servers.entrySet()) {
-			String key = entry.getKey();
-			if (key.equals("VIA")) {
-				// VIA服务器可以作为任何版本的备选
-				return entry.getValue();
-			}
-			if (key.startsWith(playerVersion)) {
-				return entry.getValue();
-			}
+	@SuppressWarnings("unchecked")
+	private AdmissionQueue createAdmissionQueue(Map<String, Object> queueConfig) {
+		if (queueConfig == null || !Boolean.TRUE.equals(queueConfig.get("enabled"))) {
+			return null;
 		}
-		
-		// 然后尝试VIA服务器
-		List<RegisteredServer> viaServers = Servers.get("VIA");
-		if (viaServers != null && !viaServers.isEmpty()) {
-			return viaServers;
+		int maxLength = 500;
+		long maxWaitSeconds = 25;
+		Map<String, Integer> lanes = new LinkedHashMap<>();
+		if (queueConfig.get("max-length") instanceof Number) {
+			maxLength = Math.max(1, ((Number) queueConfig.get("max-length")).intValue());
 		}
-		
-		return null;
-	}
-	
-	// Helper: Get all fallback servers
-	private List<RegisteredServer> getAllFallbackServers() {
-		List<RegisteredServer> allServers = new ArrayList<>();
-		for (List<RegisteredServer> serverList : Servers.values()) {
-			allServers.addAll(serverList);
-		}
-		return allServers;
-	}
-	
-	// Helper: Extract version from protocol version name
-	private String extractVersionFromProtocol(String protocolVersion) {
-		// Velocity协议版本名称通常是 "1.20.1", "1.8.9" 等格式
-		// 我们可以直接使用，或者根据需要进行转换
-		if (protocolVersion.contains(".")) {
-			String[] parts = protocolVersion.split("\\.");
-			if (parts.length >= 2) {
-				return parts[0] + "." + parts[1]; // 返回主版本号，如 "1.20"
+		if (queueConfig.get("max-wait-seconds") instanceof Number) {
+			maxWaitSeconds = Math.max(1, ((Number) queueConfig.get("max-wait-seconds")).longValue());
+		}
+		Object priorities = queueConfig.get("priority-permissions");
+		if (priorities instanceof Map) {
+			for (Map.Entry<String, Object> lane : ((Map<String, Object>) priorities).entrySet()) {
+				if (lane.getValue() instanceof Number) {
+					lanes.put(lane.getKey(), ((Number) lane.getValue()).intValue());
+				}
 			}
 		}
-		return protocolVersion;
+		logger.info("Admission queue enabled (max length: {}, max wait: {}s, {} priority lane(s)).",
+			maxLength, maxWaitSeconds, lanes.size());
+		return new AdmissionQueue(server, logger, maxLength, TimeUnit.SECONDS.toMillis(maxWaitSeconds), lanes,
+			routingService::reserveTarget, activityLog);
 	}
-	
-	// Helper: Detect mod loader from player connection
-	private String detectModLoader(Player player) {
-		if (modLoaderDetector != null) {
-			return modLoaderDetector.getModLoaderWithDelay(player);
+
+	@Subscribe
+	public void onProxyShutdown(ProxyShutdownEvent event) {
+		// 仍在排队的登录以 null 完成，不会一直挂起
+		if (admissionQueue != null) {
+			admissionQueue.stop();
+		}
+		if (healthMonitor != null) {
+			healthMonitor.stop();
+		}
+		if (pendingConnections != null) {
+			pendingConnections.stop();
+		}
+		if (updateChecker != null) {
+			updateChecker.stop();
+		}
+		if (activityLog != null) {
+			activityLog.stop();
+		}
+		if (evacuationPlanner != null) {
+			evacuationPlanner.stop();
+		}
+		if (configReloader != null) {
+			configReloader.stop();
+		}
+		if (loaderCache != null) {
+			loaderCache.close();
+		}
+		if (lobbyAffinity != null) {
+			// 关闭时仍在线的玩家也记录下当前所在的大厅
+			sessions.forEach(this::rememberLobby);
+			lobbyAffinity.save();
 		}
-		return "VANILLA";
 	}
-	
-	// Helper: Build server key from version and loader
-	private String buildServerKey(String version, String loader) {
-		if ("VIA".equals(version)) {
-			return "VIA-" + loader;
+
+	@Subscribe(order = PostOrder.FIRST)
+	EventTask onPlayerJoin(final PlayerChooseInitialServerEvent event) {
+		Player player = event.getPlayer();
+		UUID uuid = player.getUniqueId();
+		sessions.computeIfAbsent(uuid, id -> new PlayerSession()).recordConnectionAttempt();
+
+		// 等待模组加载器检测完成（收到决定性信号或自适应超时），再选择初始服务器
+		return EventTask.resumeWhenComplete(modLoaderDetector.awaitDetection(player)
+			.thenCompose(loader -> chooseInitialServer(event, player, loader)));
+	}
+
+	private CompletableFuture<Void> chooseInitialServer(PlayerChooseInitialServerEvent event, Player player, String loader) {
+		activityLog.recordJoin(ModLoader.fromNameOrVanilla(loader));
+
+		// 读取当前路由表快照，整个选择过程都使用同一份快照
+		RoutingTable table = routingService.getTable();
+		RoutingTable.Route route = table.route(player.getProtocolVersion(), ModLoader.fromNameOrVanilla(loader));
+		String version = route.getVersion();
+
+		if (route.isEmpty()) {
+			player.sendMessage(Component.text("No servers available for your Minecraft version or loader."));
+			activityLog.warn(ActivityLog.Category.ROUTING, "No servers available for version {} or loader {}", version, loader);
+			activityLog.recordUnroutable();
+			return CompletableFuture.completedFuture(null);
 		}
-		return version + "-" + loader;
+
+		// 冷启动或重新加载后先并行探测还没有健康记录的服务器，不阻塞事件线程
+		return routingService.selectServerAsync(table, route, player.getUniqueId())
+			.thenCompose(targetServer -> connectInitial(event, player, targetServer, version, loader));
 	}
 
-	// Helper: Compare version strings (e.g. "1.8" vs "1.21.1")
-	private int compareVersions(String v1, String v2) {
-		String[] parts1 = v1.split("\\.");
-		String[] parts2 = v2.split("\\.");
-		int len = Math.max(parts1.length, parts2.length);
-		for (int i = 0; i < len; i++) {
-			int num1 = i < parts1.length ? Integer.parseInt(parts1[i]) : 0;
-			int num2 = i < parts2.length ? Integer.parseInt(parts2[i]) : 0;
-			if (num1 != num2) {
-				return num1 - num2;
+	private CompletableFuture<Void> connectInitial(PlayerChooseInitialServerEvent event, Player player,
+			RegisteredServer targetServer, String version, String loader) {
+		if (targetServer == null) {
+			// Park the player in the admission queue instead of giving up, so a short capacity crunch
+			// does not turn into a reconnect storm
+			CompletableFuture<RegisteredServer> queued = admissionQueue != null ? admissionQueue.enqueue(player) : null;
+			if (queued != null) {
+				return queued.thenAccept(target -> {
+					if (target != null) {
+						activityLog.detail(ActivityLog.Category.QUEUE, player, "Player {} admitted from queue to lobby '{}'",
+							player.getUsername(), target.getServerInfo().getName());
+						event.setInitialServer(target);
+					}
+				});
 			}
+			player.sendMessage(Component.text("All servers are currently unavailable, please try again later."));
+			activityLog.warn(ActivityLog.Category.ROUTING, "All servers are offline or full for version {} or loader {}", version, loader);
+			activityLog.recordUnroutable();
+			return CompletableFuture.completedFuture(null);
 		}
-		return 0;
-	}
 
-	// Add this new helper method
-	private boolean isServerOnline(RegisteredServer server) {
-		try {
-			// Try to ping the server with a short timeout
-			server.ping().get(2, TimeUnit.SECONDS);
-			return true;
-		} catch (Exception e) {
-			logger.warn("Lobby '{}' appears to be offline", server.getServerInfo().getName());
-			return false;
+		if (player.getCurrentServer().isPresent() &&
+			player.getCurrentServer().get().getServerInfo().getName().equals(targetServer.getServerInfo().getName())) {
+			player.sendMessage(Component.text("You are already in a server."));
+			return CompletableFuture.completedFuture(null);
 		}
+
+		activityLog.detail(ActivityLog.Category.ROUTING, player, "Player {} connecting to lobby '{}' (version: {}, loader: {})",
+			player.getUsername(), targetServer.getServerInfo().getName(), version, loader);
+		// Instead of a connection request, set the initial server directly:
+		event.setInitialServer(targetServer);
+		routingService.reserve(player.getUniqueId(), targetServer);
+		return CompletableFuture.completedFuture(null);
 	}
 
 	@Subscribe
 	public void onServerKick(com.velocitypowered.api.event.player.KickedFromServerEvent event) {
 		Player player = event.getPlayer();
 		RegisteredServer kickedServer = event.getServer();
-		String serverName = kickedServer.getServerInfo().getName();
+
+		if (routingService == null) {
+			return;
+		}
+
+		// A failed connection attempt ends the player's pending reservation
+		routingService.release(player.getUniqueId());
 
 		// If the kicked server is already a lobby, do nothing.
-		if (Servers.values().stream().flatMap(List::stream).anyMatch(server -> server.getServerInfo().getName().equals(serverName))) {
+		if (routingService.isLobby(kickedServer)) {
+			return;
+		}
+
+		// 与登录使用同一套版本和加载器路由，整条回退链只读取健康缓存
+		RoutingTable table = routingService.getTable();
+		ModLoader loader = routingService.getLoader(player);
+		RoutingTable.Route route = table.route(player.getProtocolVersion(), loader);
+		// 同一服务器短时间内大量踢出玩家时按统一的放置计划分配，否则逐个选择
+		RegisteredServer fallback = evacuationPlanner != null ? evacuationPlanner.place(kickedServer, table, route) : null;
+		if (fallback == null && !route.isEmpty()) {
+			fallback = routingService.selectServer(table, route);
+		}
+
+		if (fallback == null) {
+			activityLog.warn(ActivityLog.Category.ROUTING, "No lobby available to redirect players kicked from '{}' (version: {}, loader: {})",
+				kickedServer.getServerInfo().getName(), route.getVersion(), loader);
 			return;
 		}
 
-		RegisteredServer fallback = null;
-		String version = player.getProtocolVersion().getName();
-		List<RegisteredServer> servers = Servers.get(version);
+		activityLog.detail(ActivityLog.Category.ROUTING, player, "Player {} kicked from '{}', redirecting to lobby '{}'",
+			player.getUsername(), kickedServer.getServerInfo().getName(), fallback.getServerInfo().getName());
+		PlayerSession session = sessions.get(player.getUniqueId());
+		if (session != null) {
+			session.recordConnectionAttempt();
+		}
+		// 预留立即计入负载，同一次崩溃中被踢出的玩家会分散到不同大厅
+		routingService.reserve(player.getUniqueId(), fallback);
+		event.setResult(com.velocitypowered.api.event.player.KickedFromServerEvent.RedirectPlayer.create(fallback));
+	}
 
-		if (servers != null && !servers.isEmpty()) {
-			fallback = getLeastLoadedServer(servers);
+	@Subscribe
+	public void onServerRegistered(ServerRegisteredEvent event) {
+		// 匹配名称模式的新大厅在几百毫秒内加入路由
+		if (configReloader != null) {
+			configReloader.serverChanged(this, event.registeredServer().getServerInfo().getName());
 		}
+	}
 
-		if (fallback != null) {
-			event.setResult(com.velocitypowered.api.event.player.KickedFromServerEvent.RedirectPlayer.create(fallback));
+	@Subscribe
+	public void onServerUnregistered(ServerUnregisteredEvent event) {
+		if (configReloader != null) {
+			configReloader.serverChanged(this, event.unregisteredServer().getServerInfo().getName());
+		}
+	}
+
+	@Subscribe
+	public void onServerPostConnect(ServerPostConnectEvent event) {
+		// The player is now counted by getPlayersConnected(), drop the reservation
+		if (routingService != null) {
+			routingService.release(event.getPlayer().getUniqueId());
+			event.getPlayer().getCurrentServer().ifPresent(connection -> {
+				PlayerSession session = sessions.get(event.getPlayer().getUniqueId());
+				if (session != null && routingService.isLobby(connection.getServer())) {
+					session.setLastLobby(connection.getServerInfo().getName());
+				}
+			});
 		}
 	}
 
@@ -384,13 +566,35 @@ public final class VelocityPlugin {
 	public void onPlayerDisconnect(DisconnectEvent event) {
 		Player player = event.getPlayer();
 		UUID uuid = player.getUniqueId();
-		connectionAttempts.remove(uuid);
+		PlayerSession session = sessions.remove(uuid);
+		if (session != null) {
+			rememberLobby(uuid, session);
+		}
+		if (admissionQueue != null) {
+			admissionQueue.remove(uuid);
+		}
+		if (routingService != null) {
+			routingService.release(uuid);
+		}
 		
 		// 清理模组加载器检测器中的玩家信息
 		if (modLoaderDetector != null) {
 			modLoaderDetector.removePlayer(player);
 		}
 		
-		logger.info("Player {} disconnected.", player.getUsername());
+		activityLog.recordDisconnect();
+		if (session != null) {
+			activityLog.detail(ActivityLog.Category.JOIN, player, "Player {} disconnected after {}s ({} connection attempt(s), last lobby: {})",
+				player.getUsername(), (System.currentTimeMillis() - session.getJoinedAt()) / 1000,
+				session.getConnectionAttempts(), session.getLastLobby());
+		} else {
+			activityLog.detail(ActivityLog.Category.JOIN, player, "Player {} disconnected.", player.getUsername());
+		}
+	}
+
+	private void rememberLobby(UUID uuid, PlayerSession session) {
+		if (lobbyAffinity != null && session.getLastLobby() != null) {
+			lobbyAffinity.remember(uuid, session.getLastLobby());
+		}
 	}
 }